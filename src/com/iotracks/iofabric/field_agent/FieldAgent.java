@@ -97,6 +97,7 @@ public class FieldAgent {
 		result.put("processedmessages", StatusReporter.getMessageBusStatus().getProcessedMessages());
 		result.put("elementmessagecounts", StatusReporter.getMessageBusStatus().getJsonPublishedMessagesPerElement());
 		result.put("messagespeed", StatusReporter.getMessageBusStatus().getAverageSpeed());
+		result.put("messagelatencies", StatusReporter.getMessageBusStatus().getJsonLatenciesPerElement());
 		result.put("lastcommandtime", StatusReporter.getFieldAgentStatus().getLastCommandTime());
 
 		return result;
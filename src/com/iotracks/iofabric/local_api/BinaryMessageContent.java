@@ -0,0 +1,108 @@
+package com.iotracks.iofabric.local_api;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.iotracks.iofabric.message_bus.Message;
+import com.iotracks.iofabric.message_bus.MessageCodec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * Binary representation of messages on the REST endpoints.
+ * A single message is sent as its raw ioMessage v4 bytes and
+ * a list of messages as frames of 4 bytes length followed by the message bytes
+ * @author ashita
+ * @since 2016
+ */
+public class BinaryMessageContent {
+	public static final String OCTET_STREAM = "application/octet-stream";
+	public static final String IOMESSAGE = "application/x-iomessage";
+
+	private BinaryMessageContent() {
+	}
+
+	/**
+	 * Returns true if content type is one of binary message types
+	 * @param String
+	 * @return boolean
+	 */
+	public static boolean isBinary(String contentType) {
+		if (contentType == null)
+			return false;
+		String mediaType = contentType.trim().split(";")[0].trim();
+		return mediaType.equalsIgnoreCase(OCTET_STREAM) || mediaType.equalsIgnoreCase(IOMESSAGE);
+	}
+
+	/**
+	 * Returns the binary media type accepted by the client,
+	 * or null if the client should get JSON
+	 * @param HttpHeaders
+	 * @return String
+	 */
+	public static String getAcceptedBinaryType(HttpHeaders headers) {
+		String accept = headers.get(HttpHeaders.Names.ACCEPT);
+		if (accept == null)
+			return null;
+		for (String type : accept.split(",")) {
+			String mediaType = type.trim().split(";")[0].trim();
+			if (mediaType.equalsIgnoreCase("application/json"))
+				return null;
+			if (isBinary(mediaType))
+				return mediaType.toLowerCase();
+		}
+		return null;
+	}
+
+	/**
+	 * Writes a message as a length prefixed frame
+	 * @param ByteBuf, Message
+	 * @return void
+	 */
+	public static void writeFrame(ByteBuf buf, Message message) {
+		buf.writeInt(message.getSize());
+		MessageCodec.encode(message, buf);
+	}
+
+	/**
+	 * Reads a single message from the readable bytes of the buffer
+	 * Bytes are copied once, into the message
+	 * @param ByteBuf
+	 * @return Message
+	 */
+	public static Message readMessage(ByteBuf content) throws Exception {
+		int length = content.readableBytes();
+		if (length < MessageCodec.HEADER_SIZE || content.getShort(content.readerIndex()) != MessageCodec.VERSION)
+			throw new Exception("unsupported message version");
+		ByteBuffer header = content.nioBuffer(content.readerIndex(), MessageCodec.HEADER_SIZE);
+		if (MessageCodec.HEADER_SIZE + MessageCodec.getDataSize(header, header.position()) != length)
+			throw new Exception("incomplete message");
+		byte[] bytes = new byte[length];
+		content.readBytes(bytes);
+		return new Message(bytes);
+	}
+
+	/**
+	 * Reads a list of length prefixed messages from the readable bytes of the buffer
+	 * @param ByteBuf
+	 * @return List<Message>
+	 */
+	public static List<Message> readFrames(ByteBuf content) throws Exception {
+		List<Message> result = new ArrayList<>();
+		while (content.isReadable()) {
+			if (content.readableBytes() < Integer.BYTES)
+				throw new Exception("incomplete frame");
+			int length = content.readInt();
+			if (length < 0 || length > content.readableBytes())
+				throw new Exception("incomplete frame");
+			try {
+				result.add(readMessage(content.readSlice(length)));
+			} catch (Exception e) {
+				throw new Exception("message " + result.size() + ", " + e.getMessage());
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,28 @@
+package com.iotracks.iofabric.local_api;
+
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.stream.ChunkedInput;
+
+/**
+ * Response of a handler whose content is streamed with chunked transfer encoding
+ * @author ashita
+ * @since 2016
+ */
+public class ChunkedHttpResponse {
+	private final HttpResponse response;
+	private final ChunkedInput<HttpContent> content;
+
+	public ChunkedHttpResponse(HttpResponse response, ChunkedInput<HttpContent> content) {
+		this.response = response;
+		this.content = content;
+	}
+
+	public HttpResponse getResponse() {
+		return response;
+	}
+
+	public ChunkedInput<HttpContent> getContent() {
+		return content;
+	}
+}
@@ -1,5 +1,7 @@
 package com.iotracks.iofabric.local_api;
 
+import io.netty.util.Timeout;
+
 /**
  * Unacknowledged control signals with the try count.
  * @author ashita
@@ -8,12 +10,31 @@ package com.iotracks.iofabric.local_api;
 public class ControlSignalSentInfo {
 	int sendTryCount = 0;
 	long timeMillis;
+	Timeout timeout;
 	
 	ControlSignalSentInfo(int count, long timeMillis){
 		this.sendTryCount = count;
 		this.timeMillis = timeMillis;
 	}
 	
+	/**
+	 * Get pending retransmit of the control signal
+	 * @param none
+	 * @return Timeout
+	 */
+	public Timeout getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Save pending retransmit of the control signal
+	 * @param Timeout
+	 * @return void
+	 */
+	public void setTimeout(Timeout timeout) {
+		this.timeout = timeout;
+	}
+
 	public long getTimeMillis() {
 		return timeMillis;
 	}
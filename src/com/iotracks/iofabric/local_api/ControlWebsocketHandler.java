@@ -3,17 +3,18 @@ package com.iotracks.iofabric.local_api;
 import static io.netty.handler.codec.http.HttpHeaders.Names.HOST;
 
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.Map;
 
 import com.iotracks.iofabric.status_reporter.StatusReporter;
+import com.iotracks.iofabric.utils.Constants;
 import com.iotracks.iofabric.utils.logging.LoggingService;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
-import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
@@ -23,12 +24,13 @@ import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
 /**
  * Handler for the real-time control websocket Open real-time control websocket
  * Send control-signals
+ * After the handshake one handler is kept in the pipeline of each websocket
  * 
  * @author ashita
  * @since 2016
  */
-public class ControlWebsocketHandler {
-	private final String MODULE_NAME = "Local API";
+public class ControlWebsocketHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+	private static final String MODULE_NAME = "Local API";
 
 	private static final Byte OPCODE_PING = 0x9;
 	private static final Byte OPCODE_PONG = 0xA;
@@ -36,8 +38,10 @@ public class ControlWebsocketHandler {
 	private static final Byte OPCODE_CONTROL_SIGNAL = 0xC;
 
 	private static final String WEBSOCKET_PATH = "/v2/control/socket";
+	private static final int MAX_FRAME_SIZE = 64 * Constants.KiB;
 
 	private WebSocketServerHandshaker handshaker;
+	private String id;
 
 	/**
 	 * Handler to open the websocket for the real-time control signals
@@ -51,8 +55,6 @@ public class ControlWebsocketHandler {
 		uri = uri.substring(1);
 		String[] tokens = uri.split("/");
 
-		String id;
-
 		if (tokens.length < 5) {
 			LoggingService.logWarning(MODULE_NAME, " Missing ID or ID value in URL ");
 			return;
@@ -62,30 +64,64 @@ public class ControlWebsocketHandler {
 
 		// Handshake
 		WebSocketServerHandshakerFactory wsFactory = new WebSocketServerHandshakerFactory(getWebSocketLocation(req),
-				null, true, Integer.MAX_VALUE);
+				null, true, MAX_FRAME_SIZE);
 		handshaker = wsFactory.newHandshaker(req);
 		if (handshaker == null) {
 			WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(ctx.channel());
-		} else {
-			handshaker.handshake(ctx.channel(), req);
+			return;
 		}
+		handshaker.handshake(ctx.channel(), req).addListener((ChannelFutureListener) future -> {
+			if (future.isSuccess())
+				WebsocketUtil.switchToWebsocket(ctx, handshaker, WEBSOCKET_PATH, MAX_FRAME_SIZE, this);
+		});
+		return;
+	}
 
-		Hashtable<String, ChannelHandlerContext> controlMap = WebSocketMap.controlWebsocketMap;
-		controlMap.put(id, ctx);
+	/**
+	 * Registers the websocket once the handler has been added to the pipeline
+	 * 
+	 * @param ChannelHandlerContext
+	 * @return void
+	 */
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		Map<String, ChannelHandlerContext> controlMap = WebSocketMap.controlWebsocketMap;
+		WebsocketUtil.addWebsocketContextToMap(ctx, id, controlMap);
 		StatusReporter.setLocalApiStatus().setOpenConfigSocketsCount(WebSocketMap.controlWebsocketMap.size());
+	}
 
-		return;
+	/**
+	 * Unregisters the websocket when the channel is closed
+	 * 
+	 * @param ChannelHandlerContext
+	 * @return void
+	 */
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		cancelRetransmit(WebSocketMap.unackControlSignalsMap.remove(ctx));
+		WebsocketUtil.removeWebsocketContextFromMap(ctx, WebSocketMap.controlWebsocketMap);
+		StatusReporter.setLocalApiStatus().setOpenConfigSocketsCount(WebSocketMap.controlWebsocketMap.size());
+		ctx.fireChannelInactive();
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+		LoggingService.logWarning(MODULE_NAME, "Closing real-time control websocket of " + id + ": " + cause.getMessage());
+		ctx.close();
 	}
 
 	/**
 	 * Handler for the real-time control signals Receive ping and send pong Send
 	 * control signals to container on configuration change
 	 * 
+	 * Close frames are handled by {@link LocalApiWebSocketProtocolHandler}
+	 * 
 	 * @param ChannelHandlerContext,
 	 *            WebSocketFrame
 	 * @return void
 	 */
-	public void handleWebSocketFrame(ChannelHandlerContext ctx, WebSocketFrame frame) throws Exception {
+	@Override
+	protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) throws Exception {
 
 		if (frame instanceof PingWebSocketFrame) {
 			ByteBuf buffer = frame.content();
@@ -93,9 +129,9 @@ public class ControlWebsocketHandler {
 				Byte opcode = buffer.readByte();
 				if (opcode == OPCODE_PING.intValue()) {
 					if (WebsocketUtil.hasContextInMap(ctx, WebSocketMap.controlWebsocketMap)) {
-						ByteBuf buffer1 = ctx.alloc().buffer();
+						ByteBuf buffer1 = ctx.alloc().buffer(1);
 						buffer1.writeByte(OPCODE_PONG.intValue());
-						ctx.channel().write(new PongWebSocketFrame(buffer1));
+						ctx.channel().writeAndFlush(new PongWebSocketFrame(buffer1));
 					}
 				}
 			} else {
@@ -110,18 +146,11 @@ public class ControlWebsocketHandler {
 			if (buffer2.readableBytes() == 1) {
 				Byte opcode = buffer2.readByte();
 				if (opcode == OPCODE_ACK.intValue()) {
-					WebSocketMap.unackControlSignalsMap.remove(ctx);
+					cancelRetransmit(WebSocketMap.unackControlSignalsMap.remove(ctx));
 					return;
 				}
 			}
 		}
-
-		if (frame instanceof CloseWebSocketFrame) {
-			ctx.channel().close();
-			WebsocketUtil.removeWebsocketContextFromMap(ctx, WebSocketMap.controlWebsocketMap);
-			StatusReporter.setLocalApiStatus().setOpenConfigSocketsCount(WebSocketMap.controlWebsocketMap.size());
-			return;
-		}
 	}
 
 	/**
@@ -131,12 +160,12 @@ public class ControlWebsocketHandler {
 	 *            String>, Map<String, String>
 	 * @return void
 	 */
-	public void initiateControlSignal(Map<String, String> oldConfigMap, Map<String, String> newConfigMap)
+	public static void initiateControlSignal(Map<String, String> oldConfigMap, Map<String, String> newConfigMap)
 			throws Exception {
 		ChannelHandlerContext ctx = null;
 
 		// Compare the old and new config map
-		Hashtable<String, ChannelHandlerContext> controlMap = WebSocketMap.controlWebsocketMap;
+		Map<String, ChannelHandlerContext> controlMap = WebSocketMap.controlWebsocketMap;
 		ArrayList<String> changedConfigElmtsList = new ArrayList<String>();
 
 		for (Map.Entry<String, String> newEntry : newConfigMap.entrySet()) {
@@ -156,16 +185,58 @@ public class ControlWebsocketHandler {
 		for (String changedConfigElmtId : changedConfigElmtsList) {
 			if (controlMap.containsKey(changedConfigElmtId)) {
 				ctx = controlMap.get(changedConfigElmtId);
-				WebSocketMap.unackControlSignalsMap.put(ctx, new ControlSignalSentInfo(1, System.currentTimeMillis()));
+				ControlSignalSentInfo controlSignalSentInfo = new ControlSignalSentInfo(1, System.currentTimeMillis());
+				cancelRetransmit(WebSocketMap.unackControlSignalsMap.put(ctx, controlSignalSentInfo));
 
-				ByteBuf buffer1 = ctx.alloc().buffer();
+				ByteBuf buffer1 = ctx.alloc().buffer(1);
 				buffer1.writeByte(OPCODE_CONTROL_SIGNAL);
 				ctx.channel().writeAndFlush(new BinaryWebSocketFrame(buffer1));
+				scheduleRetransmit(ctx, controlSignalSentInfo);
 			}
 		}
 
 	}
 
+	/**
+	 * Sends the control signal again if it has not been acknowledged in time
+	 * If tried for 10 times, then disable real-time service for the channel
+	 * 
+	 * @param ChannelHandlerContext,
+	 *            ControlSignalSentInfo
+	 * @return void
+	 */
+	private static void retransmitControlSignal(ChannelHandlerContext ctx, ControlSignalSentInfo controlSignalSentInfo) {
+		if (WebSocketMap.unackControlSignalsMap.get(ctx) != controlSignalSentInfo)
+			return;
+
+		if (controlSignalSentInfo.getSendTryCount() >= RetransmitTimer.MAX_TRIES) {
+			LoggingService.logInfo(MODULE_NAME, " Initiating control signal expires");
+			WebSocketMap.unackControlSignalsMap.remove(ctx);
+			WebsocketUtil.removeWebsocketContextFromMap(ctx, WebSocketMap.controlWebsocketMap);
+			StatusReporter.setLocalApiStatus().setOpenConfigSocketsCount(WebSocketMap.controlWebsocketMap.size());
+			return;
+		}
+
+		controlSignalSentInfo.setSendTryCount(controlSignalSentInfo.getSendTryCount() + 1);
+		controlSignalSentInfo.setTimeMillis(System.currentTimeMillis());
+		ByteBuf buffer1 = ctx.alloc().buffer(1);
+		buffer1.writeByte(OPCODE_CONTROL_SIGNAL);
+		ctx.channel().writeAndFlush(new BinaryWebSocketFrame(buffer1));
+		scheduleRetransmit(ctx, controlSignalSentInfo);
+	}
+
+	private static void scheduleRetransmit(ChannelHandlerContext ctx, ControlSignalSentInfo controlSignalSentInfo) {
+		controlSignalSentInfo.setTimeout(RetransmitTimer.schedule(timeout -> {
+			if (!ctx.executor().isShuttingDown())
+				ctx.executor().execute(() -> retransmitControlSignal(ctx, controlSignalSentInfo));
+		}, controlSignalSentInfo.getSendTryCount()));
+	}
+
+	private static void cancelRetransmit(ControlSignalSentInfo controlSignalSentInfo) {
+		if (controlSignalSentInfo != null && controlSignalSentInfo.getTimeout() != null)
+			controlSignalSentInfo.getTimeout().cancel();
+	}
+
 	/**
 	 * Websocket path
 	 * 
@@ -0,0 +1,22 @@
+package com.iotracks.iofabric.local_api;
+
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.util.concurrent.Future;
+
+/**
+ * Response of a handler which is completed later, without holding
+ * the handler thread while waiting
+ * @author ashita
+ * @since 2016
+ */
+public class DeferredHttpResponse {
+	private final Future<FullHttpResponse> response;
+
+	public DeferredHttpResponse(Future<FullHttpResponse> response) {
+		this.response = response;
+	}
+
+	public Future<FullHttpResponse> getResponse() {
+		return response;
+	}
+}
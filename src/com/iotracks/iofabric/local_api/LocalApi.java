@@ -146,9 +146,8 @@ public class LocalApi implements Runnable {
 		updateContainerConfig();
 		Map<String, String> newConfigMap = new HashMap<String, String>();
 		newConfigMap.putAll(ConfigurationMap.containerConfigMap);
-		ControlWebsocketHandler handler = new ControlWebsocketHandler();
 		try {
-			handler.initiateControlSignal(oldConfigMap, newConfigMap);
+			ControlWebsocketHandler.initiateControlSignal(oldConfigMap, newConfigMap);
 		} catch (Exception e) {
 			LoggingService.logWarning(MODULE_NAME, "Unable to complete the control signal sending " + e.getMessage());
 		}
@@ -1,14 +1,18 @@
 package com.iotracks.iofabric.local_api;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-
+import com.iotracks.iofabric.utils.Constants;
+import com.iotracks.iofabric.utils.configuration.Configuration;
 import com.iotracks.iofabric.utils.logging.LoggingService;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.ssl.SslContext;
@@ -17,14 +21,16 @@ import io.netty.handler.ssl.util.SelfSignedCertificate;
 
 /**
  * Local Api Server
+ * Uses the native epoll transport if configured and available, NIO otherwise.
+ * Thread counts come from the configuration or from the number of processors
  * @author ashita
  * @since 2016
  */
 public final class LocalApiServer {
 	private final String MODULE_NAME = "Local API";
 
-	EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-	EventLoopGroup workerGroup = new NioEventLoopGroup(10);
+	EventLoopGroup bossGroup;
+	EventLoopGroup workerGroup;
 
 	static final boolean SSL = System.getProperty("ssl") != null;
 	static final int PORT = 54321;
@@ -43,19 +49,46 @@ public final class LocalApiServer {
 		} else {
 			sslCtx = null;
 		}
+
+		int eventLoopThreads = getThreadCount(Configuration.getLocalApiEventLoopThreads());
+		int executorThreads = getThreadCount(Configuration.getLocalApiExecutorThreads());
+		long maxBodySize = (long) Configuration.getLocalApiMaxBodySize() * Constants.MiB;
+		boolean epoll = "epoll".equalsIgnoreCase(Configuration.getLocalApiTransport());
+		if (epoll && !Epoll.isAvailable()) {
+			LoggingService.logWarning(MODULE_NAME, "Native epoll transport not available, using NIO: " + Epoll.unavailabilityCause());
+			epoll = false;
+		}
+
+		ServerBootstrap b = new ServerBootstrap();
+		if (epoll) {
+			try {
+				bossGroup = new EpollEventLoopGroup(1);
+				workerGroup = new EpollEventLoopGroup(eventLoopThreads);
+				b.channel(EpollServerSocketChannel.class)
+				.option(EpollChannelOption.SO_REUSEPORT, true);
+			} catch (Throwable e) {
+				LoggingService.logWarning(MODULE_NAME, "Native epoll transport failed to start, using NIO: " + e.getMessage());
+				if (bossGroup != null)
+					bossGroup.shutdownGracefully();
+				epoll = false;
+			}
+		}
+		if (!epoll) {
+			bossGroup = new NioEventLoopGroup(1);
+			workerGroup = new NioEventLoopGroup(eventLoopThreads);
+			b.channel(NioServerSocketChannel.class);
+		}
 		try{
-			ServerBootstrap b = new ServerBootstrap();
 			b.group(bossGroup, workerGroup)
-			.channel(NioServerSocketChannel.class)
-			.childHandler(new LocalApiServerPipelineFactory(sslCtx));
+			.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+			.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+			.childOption(ChannelOption.TCP_NODELAY, true)
+			.childHandler(new LocalApiServerPipelineFactory(sslCtx, executorThreads, maxBodySize));
 
 			Channel ch = b.bind(PORT).sync().channel();	
 			
-			LoggingService.logInfo(MODULE_NAME, "Local api server started at port: " + PORT + "\n");
-			
-			ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-			scheduler.scheduleAtFixedRate(new ControlWebsocketWorker(), 10, 10, TimeUnit.SECONDS);
-			scheduler.scheduleAtFixedRate(new MessageWebsocketWorker(), 10, 10, TimeUnit.SECONDS);
+			LoggingService.logInfo(MODULE_NAME, "Local api server started at port: " + PORT + " (" + (epoll ? "epoll" : "nio") + ", "
+					+ eventLoopThreads + " event loop threads, " + executorThreads + " executor threads)\n");
 			ch.closeFuture().sync();
 		}finally{
 			bossGroup.shutdownGracefully();
@@ -64,14 +97,27 @@ public final class LocalApiServer {
 		}
 	}
 
+	/**
+	 * Returns configured thread count, or twice the number of processors if not configured
+	 * @param int
+	 * @return int
+	 */
+	private static int getThreadCount(int configured) {
+		if (configured > 0)
+			return configured;
+		return 2 * Runtime.getRuntime().availableProcessors();
+	}
+
 	/**
 	 * Stop local api server
 	 * @param None
 	 * @return void
 	 */
 	protected void stop() throws Exception {
-		bossGroup.shutdownGracefully();
-		workerGroup.shutdownGracefully();
+		if (bossGroup != null)
+			bossGroup.shutdownGracefully();
+		if (workerGroup != null)
+			workerGroup.shutdownGracefully();
 		LoggingService.logInfo(MODULE_NAME, "Local api server stopped\n");
 	}
 }
@@ -2,17 +2,12 @@ package com.iotracks.iofabric.local_api;
 
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Callable;
 
 import com.iotracks.iofabric.element.Element;
@@ -21,11 +16,13 @@ import com.iotracks.iofabric.utils.configuration.Configuration;
 import com.iotracks.iofabric.utils.logging.LoggingService;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
@@ -34,7 +31,6 @@ import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.LastHttpContent;
-import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.util.CharsetUtil;
 import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.Future;
@@ -42,6 +38,7 @@ import io.netty.util.concurrent.GenericFutureListener;
 
 /**
  * Provide handler for the rest api and real-time websocket depending on the request.
+ * Websocket handshake replaces this handler with the websocket handlers.
  * Send response after processing. 
  * @author ashita
  * @since 2016
@@ -52,83 +49,106 @@ public class LocalApiServerHandler extends SimpleChannelInboundHandler<Object>{
 	private final String MODULE_NAME = "Local API";
 
 	private HttpRequest request;
-	private ByteArrayOutputStream baos;
-	private byte[] content;
+	private CompositeByteBuf content;
+	private boolean discarding;
 
 	private final EventExecutorGroup executor;
+	private final long maxBodySize;
 
-	public LocalApiServerHandler(EventExecutorGroup executor) {
-		super(false);
+	public LocalApiServerHandler(EventExecutorGroup executor, long maxBodySize) {
+		super(true);
 		this.executor = executor;
+		this.maxBodySize = maxBodySize;
 	}
 
 	/**
 	 * Method to be called on channel initializing
-	 * Can take requests as HttpRequest or Websocket frame
+	 * Request body is collected from the content chunks without copying them,
+	 * requests with a body larger than the maximum body size are rejected
 	 * @param ChannelHandlerContext, Object
 	 * @return void
 	 */
 	@Override
 	public void channelRead0(ChannelHandlerContext ctx, Object msg){
 		try {
-			if (msg instanceof FullHttpRequest) {
-				// full request
-				FullHttpRequest request = (FullHttpRequest) msg;
-				this.request = request;
-				ByteBuf content = request.content();
-				this.content = new byte[content.readableBytes()];
-				content.readBytes(this.content);
-				handleHttpRequest(ctx);
-				return;
-			} else if (msg instanceof HttpRequest) {
-				// chunked request
-				if (this.baos == null)
-					this.baos = new ByteArrayOutputStream();
+			if (msg instanceof HttpRequest) {
 				request = (HttpRequest) msg;
-			} else if (msg instanceof WebSocketFrame) {
-				String mapName = findContextMapName(ctx);
-				if (mapName != null && mapName.equals("control")) {
-					ControlWebsocketHandler controlSocket = new ControlWebsocketHandler();
-					controlSocket.handleWebSocketFrame(ctx, (WebSocketFrame) msg);
-				} else if (mapName != null && mapName.equals("message")) {
-					MessageWebsocketHandler messageSocket = new MessageWebsocketHandler();
-					messageSocket.handleWebSocketFrame(ctx, (WebSocketFrame) msg);
+				releaseContent();
+				discarding = false;
+				if (HttpHeaders.getContentLength(request, 0) > maxBodySize) {
+					requestTooLarge(ctx);
 				} else {
-					LoggingService.logWarning(MODULE_NAME, "Cannot initiate real-time service: Context not found");
+					if (HttpHeaders.is100ContinueExpected(request))
+						ctx.writeAndFlush(new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.CONTINUE));
+					content = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
 				}
-			} else if (msg instanceof HttpContent) {
-				HttpContent httpContent = (HttpContent) msg;
-				ByteBuf content = httpContent.content();
-				if (content.isReadable()) {
-					try {
-						content.readBytes(this.baos, content.readableBytes());
-					} catch (IOException e) {
-						String errorMsg = "Out of memory";
-						LoggingService.logWarning(MODULE_NAME, errorMsg);
-						ByteBuf	errorMsgBytes = ctx.alloc().buffer();
-						errorMsgBytes.writeBytes(errorMsg.getBytes());
-						sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.NOT_FOUND, errorMsgBytes));
-						return;
-					}
+			}
+
+			if (msg instanceof HttpContent && !discarding) {
+				ByteBuf chunk = ((HttpContent) msg).content();
+				if (content.readableBytes() + (long) chunk.readableBytes() > maxBodySize) {
+					requestTooLarge(ctx);
+					return;
+				}
+				if (chunk.isReadable()) {
+					content.addComponent(chunk.retain());
+					content.writerIndex(content.writerIndex() + chunk.readableBytes());
 				}
 
-				if (msg instanceof LastHttpContent) {		// last chunk
-					this.content = baos.toByteArray();
-					handleHttpRequest(ctx);
+				if (msg instanceof LastHttpContent) {
+					ByteBuf body = content;
+					content = null;
+					handleHttpRequest(ctx, body);
 				}
 			}
 		} catch (Exception e) {
+			releaseContent();
 			LoggingService.logWarning(MODULE_NAME, "Failed to initialize channel for the request: " + e.getMessage());
 		}
 	}
 
+	/**
+	 * Releases the body of the request if the channel is closed before the request is complete
+	 * @param ChannelHandlerContext
+	 * @return void
+	 */
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		releaseContent();
+		ctx.fireChannelInactive();
+	}
+
+	/**
+	 * Rejects the request with 413 and closes the channel,
+	 * rest of the request body is discarded
+	 * @param ChannelHandlerContext
+	 * @return void
+	 */
+	private void requestTooLarge(ChannelHandlerContext ctx) throws Exception {
+		discarding = true;
+		releaseContent();
+		String errorMsg = " Request body larger than " + maxBodySize + " bytes ";
+		LoggingService.logWarning(MODULE_NAME, errorMsg);
+		ByteBuf	errorMsgBytes = ctx.alloc().buffer();
+		errorMsgBytes.writeBytes(errorMsg.getBytes());
+		sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, errorMsgBytes));
+	}
+
+	private void releaseContent() {
+		if (content != null) {
+			content.release();
+			content = null;
+		}
+	}
+
 	/**
 	 * Method to be called if the request is HttpRequest 
 	 * Pass the request to the handler call as per the request URI
-	 * @param ChannelHandlerContext
+	 * Request body is released when the handler call is complete
+	 * @param ChannelHandlerContext, ByteBuf
 	 * @return void
 	 */
-	private void handleHttpRequest(ChannelHandlerContext ctx) throws Exception {
+	private void handleHttpRequest(ChannelHandlerContext ctx, ByteBuf content) throws Exception {
 		String remoteIpAddress = getRemoteIP(ctx);
 		List<Element> elements = ElementManager.getInstance().getElements();
 		boolean found = false;
@@ -153,30 +173,49 @@ public class LocalApiServerHandler extends SimpleChannelInboundHandler<Object>{
 			ByteBuf	errorMsgBytes = ctx.alloc().buffer();
 			errorMsgBytes.writeBytes(errorMsg.getBytes());
 			sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.NOT_FOUND, errorMsgBytes));
+			content.release();
 			return;
 		}
 
 		if (request.getUri().equals("/v2/config/get")) {
-			Callable<? extends Object> callable = new GetConfigurationHandler(request, ctx.alloc().buffer(), content);
-			runTask(callable, ctx, request);
+			ByteBuf outputBuffer = ctx.alloc().buffer();
+			Callable<? extends Object> callable = new GetConfigurationHandler(request, outputBuffer, content);
+			runTask(callable, ctx, request, outputBuffer, content);
 			return;
 		}
 
 		if (request.getUri().equals("/v2/messages/next")) {
-			Callable<? extends Object> callable = new MessageReceiverHandler(request, ctx.alloc().buffer(), content);
-			runTask(callable, ctx, request);
+			ByteBuf outputBuffer = ctx.alloc().buffer();
+			Callable<? extends Object> callable = new MessageReceiverHandler(request, outputBuffer, content, executor, ctx.channel());
+			runTask(callable, ctx, request, outputBuffer, content);
 			return;
 		}
 
 		if (request.getUri().equals("/v2/messages/new")) {
-			Callable<? extends Object> callable = new MessageSenderHandler(request, ctx.alloc().buffer(), content);
-			runTask(callable, ctx, request);
+			ByteBuf outputBuffer = ctx.alloc().buffer();
+			Callable<? extends Object> callable = new MessageSenderHandler(request, outputBuffer, content);
+			runTask(callable, ctx, request, outputBuffer, content);
+			return;
+		}
+
+		if (request.getUri().equals("/v2/messages/new/batch")) {
+			ByteBuf outputBuffer = ctx.alloc().buffer();
+			Callable<? extends Object> callable = new MessageBatchSenderHandler(request, outputBuffer, content);
+			runTask(callable, ctx, request, outputBuffer, content);
 			return;
 		}
 
 		if (request.getUri().equals("/v2/messages/query")) {
-			Callable<? extends Object> callable = new QueryMessageReceiverHandler(request, ctx.alloc().buffer(), content);
-			runTask(callable, ctx, request);
+			ByteBuf outputBuffer = ctx.alloc().buffer();
+			Callable<? extends Object> callable = new QueryMessageReceiverHandler(request, outputBuffer, content);
+			runTask(callable, ctx, request, outputBuffer, content);
+			return;
+		}
+
+		if (request.getUri().equals("/v2/metrics")) {
+			ByteBuf outputBuffer = ctx.alloc().buffer();
+			Callable<? extends Object> callable = new MetricsHandler(request, outputBuffer);
+			runTask(callable, ctx, request, outputBuffer, content);
 			return;
 		}
 		String uri = request.getUri();
@@ -187,17 +226,28 @@ public class LocalApiServerHandler extends SimpleChannelInboundHandler<Object>{
 
 			if (url.equals("/v2/control/socket")) {
 				ControlWebsocketHandler controlSocket = new ControlWebsocketHandler();
-				controlSocket.handle(ctx, request);
+				FullHttpRequest fullRequest = toFullHttpRequest(request, content);
+				try {
+					controlSocket.handle(ctx, fullRequest);
+				} finally {
+					fullRequest.release();
+				}
 				return;
 			}
 
 			if (url.equals("/v2/message/socket")) {
 				MessageWebsocketHandler messageSocket = new MessageWebsocketHandler();
-				messageSocket.handle(ctx, request);
+				FullHttpRequest fullRequest = toFullHttpRequest(request, content);
+				try {
+					messageSocket.handle(ctx, fullRequest);
+				} finally {
+					fullRequest.release();
+				}
 				return;
 			}
 		}
 
+		content.release();
 		LoggingService.logWarning(MODULE_NAME, "Error: Request not found");
 		ByteBuf	errorMsgBytes = ctx.alloc().buffer();
 		String errorMsg = " Request not found ";
@@ -207,30 +257,6 @@ public class LocalApiServerHandler extends SimpleChannelInboundHandler<Object>{
 
 	}
 
-	private String findContextMapName(ChannelHandlerContext ctx) throws Exception{
-		String mapName = null;
-
-		Hashtable<String, ChannelHandlerContext> controlMap = WebSocketMap.controlWebsocketMap;
-		for (Iterator<Map.Entry<String,ChannelHandlerContext>> it = controlMap.entrySet().iterator(); it.hasNext();) {
-			Map.Entry<String,ChannelHandlerContext> e = it.next();
-			if (ctx.equals(e.getValue())) {
-				mapName = "control";
-				return mapName;
-			}
-		}
-
-		Hashtable<String, ChannelHandlerContext> messageMap = WebSocketMap.messageWebsocketMap;
-		for (Iterator<Map.Entry<String,ChannelHandlerContext>> it = messageMap.entrySet().iterator(); it.hasNext();) {
-			Map.Entry<String,ChannelHandlerContext> e = it.next();
-			if (ctx.equals(e.getValue())) {
-				mapName = "message";
-				return mapName;
-			}
-		}
-
-		return mapName;
-	}
-
 	/**
 	 * Method to be called on channel complete 
 	 * @param ChannelHandlerContext
@@ -241,19 +267,42 @@ public class LocalApiServerHandler extends SimpleChannelInboundHandler<Object>{
 		ctx.flush();
 	}
 
+	/**
+	 * Builds the full request for the websocket handshake
+	 * Handshake would otherwise wait for the body, which has already been read
+	 * @param HttpRequest, ByteBuf
+	 * @return FullHttpRequest
+	 */
+	private static FullHttpRequest toFullHttpRequest(HttpRequest req, ByteBuf content) {
+		FullHttpRequest fullRequest = new DefaultFullHttpRequest(req.getProtocolVersion(), req.getMethod(), req.getUri(), content);
+		fullRequest.headers().set(req.headers());
+		return fullRequest;
+	}
+
 	/**
 	 * Helper for request thread
-	 * @param Callable, ChannelHandlerContext, FullHttpRequest
+	 * Handler result can be a FullHttpResponse, a ChunkedHttpResponse or a DeferredHttpResponse
+	 * Output buffer is released if the handler fails
+	 * @param Callable, ChannelHandlerContext, HttpRequest, ByteBuf, ByteBuf
 	 * @return void
 	 */
-	private void runTask(Callable<? extends Object> callable, ChannelHandlerContext ctx, HttpRequest req) {
+	private void runTask(Callable<? extends Object> callable, ChannelHandlerContext ctx, HttpRequest req, ByteBuf outputBuffer, ByteBuf content) {
 		final Future<? extends Object> future = executor.submit(callable);
 		future.addListener(new GenericFutureListener<Future<Object>>() {
 			public void operationComplete(Future<Object> future)
 					throws Exception {
+				content.release();
 				if (future.isSuccess()) {
-					sendHttpResponse(ctx, req, (FullHttpResponse)future.get());
+					Object result = future.get();
+					if (result instanceof ChunkedHttpResponse)
+						sendChunkedHttpResponse(ctx, req, (ChunkedHttpResponse) result);
+					else if (result instanceof DeferredHttpResponse)
+						sendDeferredHttpResponse(ctx, req, (DeferredHttpResponse) result);
+					else
+						sendHttpResponse(ctx, req, (FullHttpResponse) result);
 				} else {
+					if (outputBuffer.refCnt() > 0)
+						outputBuffer.release();
 					ctx.fireExceptionCaught(future.cause());
 					ctx.close();
 				}
@@ -280,6 +329,38 @@ public class LocalApiServerHandler extends SimpleChannelInboundHandler<Object>{
 		}
 	}
 
+	/**
+	 * Provide the response when the deferred response is completed
+	 * Nothing is sent if the response was cancelled because the channel has been closed
+	 * @param ChannelHandlerContext, HttpRequest, DeferredHttpResponse
+	 * @return void
+	 */
+	private static void sendDeferredHttpResponse(ChannelHandlerContext ctx, HttpRequest req, DeferredHttpResponse res) {
+		res.getResponse().addListener(new GenericFutureListener<Future<FullHttpResponse>>() {
+			public void operationComplete(Future<FullHttpResponse> future) throws Exception {
+				if (future.isSuccess()) {
+					sendHttpResponse(ctx, req, future.getNow());
+				} else if (!future.isCancelled()) {
+					ctx.fireExceptionCaught(future.cause());
+					ctx.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Provide the chunked response as per the requests
+	 * @param ChannelHandlerContext, HttpRequest, ChunkedHttpResponse
+	 * @return void
+	 */
+	private static void sendChunkedHttpResponse(ChannelHandlerContext ctx, HttpRequest req, ChunkedHttpResponse res) {
+		ctx.channel().write(res.getResponse());
+		ChannelFuture f = ctx.channel().writeAndFlush(res.getContent());
+		if (!HttpHeaders.isKeepAlive(req)) {
+			f.addListener(ChannelFutureListener.CLOSE);
+		}
+	}
+
 	/**
 	 * Return the client IP address in the request channel
 	 * @param ChannelHandlerContext
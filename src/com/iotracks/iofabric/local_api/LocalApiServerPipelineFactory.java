@@ -3,9 +3,9 @@ package com.iotracks.iofabric.local_api;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.ssl.SslContext;
+import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.util.concurrent.DefaultEventExecutorGroup;
 import io.netty.util.concurrent.EventExecutorGroup;
 
@@ -18,10 +18,12 @@ import io.netty.util.concurrent.EventExecutorGroup;
 public class LocalApiServerPipelineFactory extends ChannelInitializer<SocketChannel>{
 	private final SslContext sslCtx;
 	private final EventExecutorGroup executor;
+	private final long maxBodySize;
 	
-	public LocalApiServerPipelineFactory(SslContext sslCtx) {
+	public LocalApiServerPipelineFactory(SslContext sslCtx, int executorThreads, long maxBodySize) {
 		this.sslCtx = sslCtx;
-		this.executor = new DefaultEventExecutorGroup(10);
+		this.executor = new DefaultEventExecutorGroup(executorThreads);
+		this.maxBodySize = maxBodySize;
 	}
 	
 	/**
@@ -36,7 +38,7 @@ public class LocalApiServerPipelineFactory extends ChannelInitializer<SocketChan
 		}
 		pipeline.addLast(new HttpServerCodec());
 //		pipeline.addLast(new HttpRequestDecoder(4 * Constants.KiB, 64 * Constants.KiB, 2 * Constants.MiB));
-		pipeline.addLast(new HttpObjectAggregator(Integer.MAX_VALUE));
-		pipeline.addLast(new LocalApiServerHandler(executor));	
+		pipeline.addLast(executor, new ChunkedWriteHandler());
+		pipeline.addLast(new LocalApiServerHandler(executor, maxBodySize));	
 	}
 }	
\ No newline at end of file
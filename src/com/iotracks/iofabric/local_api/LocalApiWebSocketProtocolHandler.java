@@ -0,0 +1,54 @@
+package com.iotracks.iofabric.local_api;
+
+import java.util.List;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+
+/**
+ * Websocket protocol handler for the real-time message and control websockets
+ * The handshake is done by the Local API because the websocket path contains the container ID,
+ * so this handler only answers close frames and passes the other frames on.
+ * Ping frames are passed on too, as the containers expect the pong op code in the response
+ * @author ashita
+ * @since 2016
+ */
+public class LocalApiWebSocketProtocolHandler extends WebSocketServerProtocolHandler {
+	private final WebSocketServerHandshaker handshaker;
+
+	public LocalApiWebSocketProtocolHandler(String websocketPath, WebSocketServerHandshaker handshaker, int maxFrameSize) {
+		super(websocketPath, null, true, maxFrameSize);
+		this.handshaker = handshaker;
+	}
+
+	/**
+	 * Handshake has already been done
+	 * @param ChannelHandlerContext
+	 * @return void
+	 */
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) {
+	}
+
+	/**
+	 * Closes the websocket on close frame, passes the other frames on
+	 * @param ChannelHandlerContext, WebSocketFrame, List<Object>
+	 * @return void
+	 */
+	@Override
+	protected void decode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) throws Exception {
+		if (frame instanceof CloseWebSocketFrame) {
+			handshaker.close(ctx.channel(), (CloseWebSocketFrame) frame.retain());
+			return;
+		}
+		if (frame instanceof PingWebSocketFrame) {
+			out.add(frame.retain());
+			return;
+		}
+		super.decode(ctx, frame, out);
+	}
+}
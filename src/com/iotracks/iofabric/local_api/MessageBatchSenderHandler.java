@@ -0,0 +1,205 @@
+package com.iotracks.iofabric.local_api;
+
+import static io.netty.handler.codec.http.HttpMethod.*;
+import static io.netty.handler.codec.http.HttpResponseStatus.*;
+import static io.netty.handler.codec.http.HttpVersion.*;
+
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+
+import com.iotracks.iofabric.message_bus.Message;
+import com.iotracks.iofabric.message_bus.MessageBusUtil;
+import com.iotracks.iofabric.utils.logging.LoggingService;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+/**
+ * Handler to publish a batch of messages from the container to message bus
+ * Messages are sent as a JSON array, as newline-delimited JSON
+ * or as length prefixed binary messages
+ * and are published together, or none of them if any is invalid
+ *
+ * @author ashita
+ * @since 2016
+ */
+public class MessageBatchSenderHandler implements Callable<Object> {
+	private final String MODULE_NAME = "Local API";
+
+	private final HttpRequest req;
+	private ByteBuf outputBuffer;
+	private final ByteBuf content;
+
+	public MessageBatchSenderHandler(HttpRequest req, ByteBuf outputBuffer, ByteBuf content) {
+		this.req = req;
+		this.outputBuffer = outputBuffer;
+		this.content = content;
+	}
+
+	/**
+	 * Handler method to publish the batch of messages
+	 *
+	 * @param None
+	 * @return Object
+	 */
+	public Object handleMessageBatchSenderRequest() throws Exception {
+		HttpHeaders headers = req.headers();
+
+		if (req.getMethod() != POST) {
+			LoggingService.logWarning(MODULE_NAME, "Request method not allowed");
+			return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED, outputBuffer);
+		}
+
+		String contentType = headers.get(HttpHeaders.Names.CONTENT_TYPE);
+		boolean binary = BinaryMessageContent.isBinary(contentType);
+		contentType = contentType == null ? "" : contentType.trim().split(";")[0];
+		if (!binary && !contentType.equalsIgnoreCase("application/json") && !contentType.equalsIgnoreCase("application/x-ndjson")) {
+			return badRequest(" Incorrect content type ");
+		}
+
+		List<Message> messages;
+		if (binary) {
+			try {
+				messages = BinaryMessageContent.readFrames(content);
+			} catch (Exception e) {
+				return badRequest(" Message Parsing Error, " + e.getMessage());
+			}
+			for (int i = 0; i < messages.size(); i++) {
+				try {
+					MessageSenderHandler.validateMessage(messages.get(i));
+				} catch (Exception e) {
+					return badRequest("Validation Error, message " + i + ", " + e.getMessage());
+				}
+			}
+		} else {
+			try {
+				messages = parseJsonMessages();
+			} catch (Exception e) {
+				return badRequest(e.getMessage());
+			}
+		}
+
+		MessageBusUtil bus = new MessageBusUtil();
+		bus.publishBatch(messages);
+
+		JsonArrayBuilder messagesBuilder = Json.createArrayBuilder();
+		for (Message message : messages) {
+			JsonObjectBuilder messageBuilder = Json.createObjectBuilder();
+			messageBuilder.add("id", message.getId());
+			messageBuilder.add("timestamp", message.getTimestamp());
+			messagesBuilder.add(messageBuilder);
+		}
+		JsonObjectBuilder builder = Json.createObjectBuilder();
+		builder.add("status", "okay");
+		builder.add("count", messages.size());
+		builder.add("messages", messagesBuilder);
+
+		String sendMessageResult = builder.build().toString();
+		outputBuffer.writeBytes(sendMessageResult.getBytes());
+		FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, OK, outputBuffer);
+		HttpHeaders.setContentLength(res, outputBuffer.readableBytes());
+		return res;
+	}
+
+	/**
+	 * Parses and validates the JSON messages of the request
+	 *
+	 * @param None
+	 * @return List<Message>
+	 */
+	private List<Message> parseJsonMessages() throws Exception {
+		List<JsonObject> jsonObjects;
+		try {
+			jsonObjects = parseMessages(content);
+		} catch (Exception e) {
+			throw new Exception(" Message Parsing Error, " + e.getMessage());
+		}
+
+		List<Message> messages = new ArrayList<>(jsonObjects.size());
+		for (int i = 0; i < jsonObjects.size(); i++) {
+			try {
+				MessageSenderHandler.validateMessage(jsonObjects.get(i));
+			} catch (Exception e) {
+				throw new Exception("Validation Error, message " + i + ", " + e.getMessage());
+			}
+			try {
+				messages.add(new Message(jsonObjects.get(i)));
+			} catch (Exception e) {
+				throw new Exception(" Message Parsing Error, message " + i + ", " + e.getMessage());
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * Parses the request body as a JSON array or as one JSON object per line
+	 * Objects are read from the buffer without copying the body into a string
+	 *
+	 * @param ByteBuf
+	 * @return List<JsonObject>
+	 */
+	private List<JsonObject> parseMessages(ByteBuf body) throws Exception {
+		List<JsonObject> result = new ArrayList<>();
+		int first = body.forEachByte(value -> Character.isWhitespace(value));
+		if (first >= 0 && body.getByte(first) == '[') {
+			try (JsonReader reader = createReader(body)) {
+				JsonArray array = reader.readArray();
+				for (int i = 0; i < array.size(); i++) {
+					if (!(array.get(i) instanceof JsonObject))
+						throw new Exception("message " + i + " is not a JSON object");
+					result.add(array.getJsonObject(i));
+				}
+			}
+			return result;
+		}
+
+		while (body.isReadable()) {
+			int end = body.bytesBefore((byte) '\n');
+			ByteBuf line = body.readSlice(end < 0 ? body.readableBytes() : end);
+			if (end >= 0)
+				body.skipBytes(1);
+			if (line.forEachByte(value -> Character.isWhitespace(value)) < 0)
+				continue;
+			try (JsonReader reader = createReader(line)) {
+				result.add(reader.readObject());
+			}
+		}
+		return result;
+	}
+
+	private static JsonReader createReader(ByteBuf buf) {
+		return Json.createReader(new InputStreamReader(new ByteBufInputStream(buf), StandardCharsets.UTF_8));
+	}
+
+	private FullHttpResponse badRequest(String errorMsg) {
+		LoggingService.logWarning(MODULE_NAME, errorMsg);
+		outputBuffer.writeBytes(errorMsg.getBytes());
+		return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.BAD_REQUEST, outputBuffer);
+	}
+
+	/**
+	 * Overriden method of the Callable interface which call the handler method
+	 *
+	 * @param None
+	 * @return Object
+	 */
+	@Override
+	public Object call() throws Exception {
+		return handleMessageBatchSenderRequest();
+	}
+}
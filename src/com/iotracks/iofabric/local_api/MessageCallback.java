@@ -20,7 +20,6 @@ public class MessageCallback {
 	 * @return void
 	 */
 	public void sendRealtimeMessage(Message message) {
-		MessageWebsocketHandler handler = new MessageWebsocketHandler();
-		handler.sendRealTimeMessage(name, message);
+		MessageWebsocketHandler.sendRealTimeMessage(name, message);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+package com.iotracks.iofabric.local_api;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import com.iotracks.iofabric.message_bus.Message;
+import com.iotracks.iofabric.message_bus.MessageBusUtil;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * Parked request for the next messages of a receiver.
+ * The request is completed when messages are published to the receiver
+ * or when the wait time expires. No thread is held while waiting,
+ * publishers wake the request up and the executor checks for messages.
+ * If the channel is closed while waiting, the request is cancelled
+ * without taking any messages, so they stay in the message bus
+ * @author ashita
+ * @since 2016
+ */
+public class MessageLongPoll implements Runnable {
+	private final MessageBusUtil bus;
+	private final String receiverId;
+	private final int max;
+	private final long maxBytes;
+	private final long deadline;
+	private final EventExecutor executor;
+	private final Channel channel;
+	private final Function<List<Message>, FullHttpResponse> responder;
+	private final Promise<FullHttpResponse> promise;
+	private final AtomicBoolean pending = new AtomicBoolean();
+	private final ChannelFutureListener closeListener = future -> cancel();
+	private ScheduledFuture<?> timeout;
+	private boolean done;
+
+	public MessageLongPoll(MessageBusUtil bus, String receiverId, int max, long maxBytes, long wait, EventExecutor executor,
+			Channel channel, Function<List<Message>, FullHttpResponse> responder) {
+		this.bus = bus;
+		this.receiverId = receiverId;
+		this.max = max;
+		this.maxBytes = maxBytes;
+		this.deadline = System.currentTimeMillis() + wait;
+		this.executor = executor;
+		this.channel = channel;
+		this.responder = responder;
+		this.promise = executor.newPromise();
+	}
+
+	/**
+	 * Parks the request until messages arrive or the wait time expires
+	 * @param None
+	 * @return DeferredHttpResponse
+	 */
+	public DeferredHttpResponse start() {
+		if (!bus.addMessageWaiter(receiverId, this)) {
+			poll(true);
+			return new DeferredHttpResponse(promise);
+		}
+		// added after the waiter, so a channel closed already removes the waiter
+		channel.closeFuture().addListener(closeListener);
+		synchronized (this) {
+			if (!done)
+				timeout = executor.schedule(() -> poll(true), Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		}
+		// messages published before the waiter was added
+		run();
+		return new DeferredHttpResponse(promise);
+	}
+
+	/**
+	 * Called by publishing thread when messages are sent to the receiver.
+	 * Wake ups are coalesced until the executor checks for messages
+	 * @param None
+	 * @return void
+	 */
+	@Override
+	public void run() {
+		if (pending.compareAndSet(false, true))
+			executor.execute(() -> {
+				pending.set(false);
+				poll(false);
+			});
+	}
+
+	/**
+	 * Checks for messages and completes the request if there are any,
+	 * or if the wait time has expired
+	 * @param boolean
+	 * @return void
+	 */
+	private synchronized void poll(boolean expired) {
+		if (done)
+			return;
+		if (!channel.isActive()) {
+			cancel();
+			return;
+		}
+		List<Message> messages = bus.getMessages(receiverId, max, maxBytes);
+		if (messages.isEmpty() && !expired)
+			return;
+		complete(messages);
+	}
+
+	/**
+	 * Stops waiting without taking messages, called when the channel is closed
+	 * @param None
+	 * @return void
+	 */
+	private synchronized void cancel() {
+		if (done)
+			return;
+		stop();
+		promise.cancel(false);
+	}
+
+	private synchronized void complete(List<Message> messages) {
+		stop();
+		try {
+			promise.trySuccess(responder.apply(messages));
+		} catch (Exception e) {
+			promise.tryFailure(e);
+		}
+	}
+
+	/**
+	 * Removes the waiter, the timeout and the close listener of the channel,
+	 * so nothing refers to the request on a keep-alive connection
+	 * @param None
+	 * @return void
+	 */
+	private void stop() {
+		done = true;
+		bus.removeMessageWaiter(receiverId, this);
+		if (timeout != null)
+			timeout.cancel(false);
+		channel.closeFuture().removeListener(closeListener);
+	}
+}
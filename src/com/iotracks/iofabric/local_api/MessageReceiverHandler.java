@@ -4,8 +4,9 @@ import static io.netty.handler.codec.http.HttpMethod.POST;
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
-import java.io.StringReader;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 
@@ -18,14 +19,18 @@ import javax.json.JsonReader;
 
 import com.iotracks.iofabric.message_bus.Message;
 import com.iotracks.iofabric.message_bus.MessageBusUtil;
+import com.iotracks.iofabric.utils.Constants;
 import com.iotracks.iofabric.utils.logging.LoggingService;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.channel.Channel;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.concurrent.EventExecutorGroup;
 
 /**
  * Handler to deliver the messages to the receiver, if found any.
@@ -36,20 +41,27 @@ import io.netty.handler.codec.http.HttpResponseStatus;
 public class MessageReceiverHandler implements Callable<Object> {
 
 	private final String MODULE_NAME = "Local API";
+	private final long MAX_WAIT = 60 * 1000;
+	private final long MAX_BYTES = 16 * Constants.MiB;
 
 	private final HttpRequest req;
 	private ByteBuf outputBuffer;
-	private final byte[] content;
+	private final ByteBuf content;
+	private final EventExecutorGroup executor;
+	private final Channel channel;
 
-	public MessageReceiverHandler(HttpRequest req, ByteBuf outputBuffer, byte[] content) {
+	public MessageReceiverHandler(HttpRequest req, ByteBuf outputBuffer, ByteBuf content, EventExecutorGroup executor, Channel channel) {
 		this.req = req;
 		this.outputBuffer = outputBuffer;
 		this.content = content;
+		this.executor = executor;
+		this.channel = channel;
 	}
 
 	/**
 	 * Handler method to deliver the messages to the receiver. Get the messages
-	 * from message bus
+	 * from message bus. If there is no message and the request has a wait time,
+	 * the response is deferred until messages arrive or the wait time expires
 	 * 
 	 * @param None
 	 * @return Object
@@ -59,7 +71,7 @@ public class MessageReceiverHandler implements Callable<Object> {
 
 		if (req.getMethod() != POST) {
 			LoggingService.logWarning(MODULE_NAME, "Request method not allowed");
-			return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED);
+			return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED, outputBuffer);
 		}
 
 		if (!(headers.get(HttpHeaders.Names.CONTENT_TYPE).trim().split(";")[0].equalsIgnoreCase("application/json"))) {
@@ -69,8 +81,7 @@ public class MessageReceiverHandler implements Callable<Object> {
 			return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.BAD_REQUEST, outputBuffer);
 		}
 
-		String requestBody = new String(content, StandardCharsets.UTF_8);
-		JsonReader reader = Json.createReader(new StringReader(requestBody));
+		JsonReader reader = Json.createReader(new InputStreamReader(new ByteBufInputStream(content), StandardCharsets.UTF_8));
 		JsonObject jsonObject = reader.readObject();
 
 		try {
@@ -83,14 +94,49 @@ public class MessageReceiverHandler implements Callable<Object> {
 		}
 
 		String receiverId = jsonObject.getString("id");
+		long wait = jsonObject.containsKey("wait") ? Math.min(Long.parseLong(jsonObject.get("wait").toString()), MAX_WAIT) : 0;
+		int max = jsonObject.containsKey("max") ? Integer.parseInt(jsonObject.get("max").toString()) : 0;
+		long maxBytes = jsonObject.containsKey("maxbytes") ? Long.parseLong(jsonObject.get("maxbytes").toString()) : 0;
+		maxBytes = maxBytes <= 0 ? MAX_BYTES : Math.min(maxBytes, MAX_BYTES);
+		String binaryType = BinaryMessageContent.getAcceptedBinaryType(headers);
+
+		MessageBusUtil bus = new MessageBusUtil();
+		// messages taken for a closed channel would be lost
+		List<Message> messageList = channel.isActive() ? bus.getMessages(receiverId, max, maxBytes) : new ArrayList<>();
+		if (messageList.isEmpty() && wait > 0) {
+			MessageLongPoll longPoll = new MessageLongPoll(bus, receiverId, max, maxBytes, wait, executor.next(), channel,
+					messages -> buildResponse(messages, binaryType));
+			DeferredHttpResponse response = longPoll.start();
+			// output buffer is not used when the request is cancelled or fails
+			response.getResponse().addListener(future -> {
+				if (!future.isSuccess() && outputBuffer.refCnt() > 0)
+					outputBuffer.release();
+			});
+			return response;
+		}
+		return buildResponse(messageList, binaryType);
+	}
+
+	/**
+	 * Builds the response with the messages as JSON or binary
+	 * 
+	 * @param List<Message>, String
+	 * @return FullHttpResponse
+	 */
+	private FullHttpResponse buildResponse(List<Message> messageList, String binaryType) {
+		if (binaryType != null) {
+			for (Message msg : messageList)
+				BinaryMessageContent.writeFrame(outputBuffer, msg);
+			FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, OK, outputBuffer);
+			res.headers().set(HttpHeaders.Names.CONTENT_TYPE, binaryType);
+			HttpHeaders.setContentLength(res, outputBuffer.readableBytes());
+			return res;
+		}
 
 		JsonBuilderFactory factory = Json.createBuilderFactory(null);
 		JsonObjectBuilder builder = factory.createObjectBuilder();
 		JsonArrayBuilder messagesArray = factory.createArrayBuilder();
 
-		MessageBusUtil bus = new MessageBusUtil();
-		List<Message> messageList = bus.getMessages(receiverId);
-
 		for (Message msg : messageList) {
 			JsonObject msgJson = msg.toJson();
 			messagesArray.add(msgJson);
@@ -118,6 +164,12 @@ public class MessageReceiverHandler implements Callable<Object> {
 			throw new Exception(" Id not found ");
 		if (jsonObject.getString("id").equals(null) || jsonObject.getString("id").trim().equals(""))
 			throw new Exception(" Id value not found ");
+		if (jsonObject.containsKey("wait") && !jsonObject.get("wait").toString().matches("[0-9]{1,18}"))
+			throw new Exception(" Invalid value for wait ");
+		if (jsonObject.containsKey("max") && !jsonObject.get("max").toString().matches("[0-9]{1,9}"))
+			throw new Exception(" Invalid value for max ");
+		if (jsonObject.containsKey("maxbytes") && !jsonObject.get("maxbytes").toString().matches("[0-9]{1,18}"))
+			throw new Exception(" Invalid value for maxbytes ");
 	}
 
 	/**
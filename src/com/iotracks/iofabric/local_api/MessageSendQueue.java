@@ -0,0 +1,287 @@
+package com.iotracks.iofabric.local_api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.iotracks.iofabric.message_bus.Message;
+import com.iotracks.iofabric.message_bus.MessageBus;
+import com.iotracks.iofabric.message_bus.MessageLatencyRecorder;
+import com.iotracks.iofabric.message_bus.MessageLatencyRecorder.Stage;
+import com.iotracks.iofabric.utils.Constants;
+import com.iotracks.iofabric.utils.logging.LoggingService;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+
+/**
+ * Bounded queue of real-time messages waiting to be sent on a message websocket
+ * Messages are written only while the channel is writable and the window of
+ * unacknowledged messages is not full. Sent messages are kept by ID until
+ * the container acknowledges them, and each one is sent again by {@link RetransmitTimer}
+ * if it is not acknowledged in time.
+ * When the queue is full, real-time receiving is disabled so the messages stay in the message bus,
+ * and it is enabled again when the queue has been half emptied
+ * @author ashita
+ * @since 2016
+ */
+public class MessageSendQueue {
+	private final String MODULE_NAME = "Local API";
+	private static final Byte OPCODE_MSG = 0xD;
+
+	static final int WINDOW_SIZE = 64;
+	static final int CAPACITY = 1024;
+	static final long MAX_BYTES = 16 * Constants.MiB;
+
+	private final String receiverId;
+	private final ChannelHandlerContext ctx;
+	private final Queue<Message> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+	// accessed from the channel event loop only
+	private final Map<String, MessageSentInfo> inFlight = new LinkedHashMap<>();
+	private boolean paused;
+	private boolean closed;
+	// size of inFlight, for threads other than the event loop
+	private volatile int unacknowledged;
+
+	public MessageSendQueue(String receiverId, ChannelHandlerContext ctx) {
+		this.receiverId = receiverId;
+		this.ctx = ctx;
+	}
+
+	/**
+	 * Adds a message to the queue and schedules sending it
+	 * Called by the message bus thread delivering real-time messages
+	 * @param Message
+	 * @return void
+	 */
+	public void offer(Message message) {
+		queue.add(message);
+		int count = size.incrementAndGet();
+		long total = bytes.addAndGet(message.getSize());
+		if (count >= CAPACITY || total >= MAX_BYTES) {
+			if (ctx.executor().inEventLoop())
+				pause();
+			else
+				ctx.executor().execute(this::pause);
+		}
+		if (flushScheduled.compareAndSet(false, true))
+			ctx.executor().execute(() -> {
+				flushScheduled.set(false);
+				flush();
+			});
+	}
+
+	/**
+	 * Acknowledges a sent message, or the oldest unacknowledged one if no ID is given,
+	 * and sends more messages
+	 * @param String
+	 * @return void
+	 */
+	public void acknowledge(String messageId) {
+		MessageSentInfo info = null;
+		if (messageId == null) {
+			Iterator<MessageSentInfo> it = inFlight.values().iterator();
+			if (it.hasNext()) {
+				info = it.next();
+				it.remove();
+			}
+		} else {
+			info = inFlight.remove(messageId);
+		}
+		acknowledged(info);
+		flush();
+	}
+
+	/**
+	 * Acknowledges a sent message and all of the messages sent before it,
+	 * and sends more messages
+	 * @param String
+	 * @return void
+	 */
+	public void acknowledgeUpTo(String messageId) {
+		if (!inFlight.containsKey(messageId))
+			return;
+		for (Iterator<Map.Entry<String, MessageSentInfo>> it = inFlight.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, MessageSentInfo> e = it.next();
+			it.remove();
+			acknowledged(e.getValue());
+			if (e.getKey().equals(messageId))
+				break;
+		}
+		flush();
+	}
+
+	/**
+	 * Sends again a message which has not been acknowledged in time
+	 * If the message has been tried for 10 times, then the websocket is closed
+	 * and it is unregistered by the handler when the channel becomes inactive
+	 * @param String
+	 * @return void
+	 */
+	private void retransmit(String messageId) {
+		MessageSentInfo info = inFlight.get(messageId);
+		if (closed || info == null)
+			return;
+		if (info.getSendTryCount() >= RetransmitTimer.MAX_TRIES) {
+			LoggingService.logWarning(MODULE_NAME, "Message " + messageId + " not acknowledged by " + receiverId);
+			close();
+			ctx.close();
+			return;
+		}
+		info.setSendTryCount(info.getSendTryCount() + 1);
+		info.setTimeMillis(System.currentTimeMillis());
+		// a try is counted even if the channel is not writable, so a dead channel is given up
+		if (ctx.channel().isWritable() && write(info.getMessage()))
+			ctx.channel().flush();
+		scheduleRetransmit(info);
+	}
+
+	private void scheduleRetransmit(MessageSentInfo info) {
+		String messageId = info.getMessage().getId();
+		info.setTimeout(RetransmitTimer.schedule(timeout -> {
+			if (!ctx.executor().isShuttingDown())
+				ctx.executor().execute(() -> retransmit(messageId));
+		}, info.getSendTryCount()));
+	}
+
+	private void acknowledged(MessageSentInfo info) {
+		if (info == null)
+			return;
+		cancelRetransmit(info);
+		MessageLatencyRecorder.recordSince(receiverId, Stage.ACK, info.getFirstSendNanoTime());
+	}
+
+	private void cancelRetransmit(MessageSentInfo info) {
+		if (info != null && info.getTimeout() != null)
+			info.getTimeout().cancel();
+	}
+
+	/**
+	 * Sends waiting messages while the channel is writable and the window is not full
+	 * Called on the channel event loop, also when the channel writability changes
+	 * @param None
+	 * @return void
+	 */
+	public void flush() {
+		if (closed)
+			return;
+		boolean written = false;
+		while (inFlight.size() < WINDOW_SIZE && ctx.channel().isWritable()) {
+			Message message = queue.poll();
+			if (message == null)
+				break;
+			size.decrementAndGet();
+			bytes.addAndGet(-message.getSize());
+			if (write(message)) {
+				MessageSentInfo info = new MessageSentInfo(message, 1, System.currentTimeMillis());
+				inFlight.put(message.getId(), info);
+				scheduleRetransmit(info);
+				written = true;
+			}
+		}
+		if (written)
+			ctx.channel().flush();
+		unacknowledged = inFlight.size();
+		if (paused && size.get() <= CAPACITY / 2 && bytes.get() <= MAX_BYTES / 2) {
+			paused = false;
+			MessageBus.getInstance().enableRealTimeReceiving(receiverId);
+		}
+	}
+
+	/**
+	 * Stops sending, messages left in the queue and unacknowledged messages are dropped
+	 * @param None
+	 * @return void
+	 */
+	public void close() {
+		closed = true;
+		inFlight.values().forEach(this::cancelRetransmit);
+		inFlight.clear();
+		unacknowledged = 0;
+		queue.clear();
+		size.set(0);
+		bytes.set(0);
+	}
+
+	public String getReceiverId() {
+		return receiverId;
+	}
+
+	/**
+	 * Number of messages waiting to be sent
+	 * @param None
+	 * @return int
+	 */
+	public int getQueuedCount() {
+		return size.get();
+	}
+
+	/**
+	 * Total size of messages waiting to be sent
+	 * @param None
+	 * @return long
+	 */
+	public long getQueuedBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Number of sent messages waiting for acknowledgement
+	 * @param None
+	 * @return int
+	 */
+	public int getUnacknowledgedCount() {
+		return unacknowledged;
+	}
+
+	/**
+	 * Disables real-time receiving until the queue has been half emptied
+	 * @param None
+	 * @return void
+	 */
+	private void pause() {
+		if (paused || closed)
+			return;
+		paused = true;
+		LoggingService.logInfo(MODULE_NAME, "Real-time message queue full for " + receiverId + ", pausing real-time receiving");
+		MessageBus.getInstance().disableRealTimeReceiving(receiverId);
+	}
+
+	/**
+	 * Writes the message frame, only the frame header is allocated
+	 * and the encoded bytes of the message are wrapped instead of being copied
+	 * @param Message
+	 * @return boolean
+	 */
+	private boolean write(Message message) {
+		byte[] messageBytes = message.getEncoded();
+		if (messageBytes.length == 0) {
+			LoggingService.logWarning(MODULE_NAME, "Problem in retrieving the message");
+			return false;
+		}
+		ByteBuf buffer1 = ctx.alloc().buffer(5);
+
+		// Send Opcode
+		buffer1.writeByte(OPCODE_MSG);
+		// Total Length
+		buffer1.writeInt(messageBytes.length);
+		// Message
+		CompositeByteBuf frame = ctx.alloc().compositeBuffer(2);
+		frame.addComponents(buffer1, Unpooled.wrappedBuffer(messageBytes));
+		frame.writerIndex(frame.capacity());
+		ctx.channel().write(new BinaryWebSocketFrame(frame));
+		return true;
+	}
+}
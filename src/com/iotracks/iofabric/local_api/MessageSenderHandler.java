@@ -4,7 +4,7 @@ import static io.netty.handler.codec.http.HttpMethod.*;
 import static io.netty.handler.codec.http.HttpResponseStatus.*;
 import static io.netty.handler.codec.http.HttpVersion.*;
 
-import java.io.StringReader;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.Callable;
 
@@ -19,6 +19,7 @@ import com.iotracks.iofabric.message_bus.MessageBusUtil;
 import com.iotracks.iofabric.utils.logging.LoggingService;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
@@ -36,9 +37,9 @@ public class MessageSenderHandler implements Callable<Object> {
 
 	private final HttpRequest req;
 	private ByteBuf outputBuffer;
-	private final byte[] content;
+	private final ByteBuf content;
 
-	public MessageSenderHandler(HttpRequest req, ByteBuf outputBuffer, byte[] content) {
+	public MessageSenderHandler(HttpRequest req, ByteBuf outputBuffer, ByteBuf content) {
 		this.req = req;
 		this.outputBuffer = outputBuffer;
 		this.content = content;
@@ -55,18 +56,58 @@ public class MessageSenderHandler implements Callable<Object> {
 
 		if (req.getMethod() != POST) {
 			LoggingService.logWarning(MODULE_NAME, "Request method not allowed");
-			return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED);
+			return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED, outputBuffer);
 		}
 
-		if (!(headers.get(HttpHeaders.Names.CONTENT_TYPE).trim().split(";")[0].equalsIgnoreCase("application/json"))) {
+		boolean binary = BinaryMessageContent.isBinary(headers.get(HttpHeaders.Names.CONTENT_TYPE));
+		if (!binary && !(headers.get(HttpHeaders.Names.CONTENT_TYPE).trim().split(";")[0].equalsIgnoreCase("application/json"))) {
 			String errorMsg = " Incorrect content type ";
 			LoggingService.logWarning(MODULE_NAME, errorMsg);
 			outputBuffer.writeBytes(errorMsg.getBytes());
 			return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.BAD_REQUEST, outputBuffer);
 		}
 
-		String msgString = new String(content, StandardCharsets.UTF_8);
-		JsonReader reader = Json.createReader(new StringReader(msgString));
+		MessageBusUtil bus = new MessageBusUtil();
+		Message message;
+		if (binary) {
+			try {
+				message = BinaryMessageContent.readMessage(content);
+				validateMessage(message);
+			} catch (Exception e) {
+				String errorMsg = "Validation Error, " + e.getMessage();
+				LoggingService.logWarning(MODULE_NAME, errorMsg);
+				outputBuffer.writeBytes(errorMsg.getBytes());
+				return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.BAD_REQUEST, outputBuffer);
+			}
+		} else {
+			message = parseJsonMessage();
+			if (message == null)
+				return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.BAD_REQUEST, outputBuffer);
+		}
+		bus.publishMessage(message);
+
+		JsonBuilderFactory factory = Json.createBuilderFactory(null);
+		JsonObjectBuilder builder = factory.createObjectBuilder();
+		builder.add("status", "okay");
+		builder.add("timestamp", message.getTimestamp());
+		builder.add("id", message.getId());
+
+		String sendMessageResult = builder.build().toString();
+		outputBuffer.writeBytes(sendMessageResult.getBytes());
+		FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, OK, outputBuffer);
+		HttpHeaders.setContentLength(res, outputBuffer.readableBytes());
+		return res;
+	}
+
+	/**
+	 * Parses and validates the JSON message of the request.
+	 * Error is written to output buffer if the message is invalid
+	 * 
+	 * @param None
+	 * @return Message or null if invalid
+	 */
+	private Message parseJsonMessage() {
+		JsonReader reader = Json.createReader(new InputStreamReader(new ByteBufInputStream(content), StandardCharsets.UTF_8));
 		JsonObject jsonObject = reader.readObject();
 
 		try {
@@ -75,32 +116,31 @@ public class MessageSenderHandler implements Callable<Object> {
 			String errorMsg = "Validation Error, " + e.getMessage();
 			LoggingService.logWarning(MODULE_NAME, errorMsg);
 			outputBuffer.writeBytes(errorMsg.getBytes());
-			return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.BAD_REQUEST, outputBuffer);
+			return null;
 		}
 
-		MessageBusUtil bus = new MessageBusUtil();
-		Message message;
 		try {
-			message = new Message(jsonObject);
+			return new Message(jsonObject);
 		} catch (Exception e) {
 			String errorMsg = " Message Pasring Error, " + e.getMessage();
 			LoggingService.logWarning(MODULE_NAME, errorMsg);
 			outputBuffer.writeBytes(errorMsg.getBytes());
-			return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.BAD_REQUEST, outputBuffer);
+			return null;
 		}
-		bus.publishMessage(message);
-
-		JsonBuilderFactory factory = Json.createBuilderFactory(null);
-		JsonObjectBuilder builder = factory.createObjectBuilder();
-		builder.add("status", "okay");
-		builder.add("timestamp", message.getTimestamp());
-		builder.add("id", message.getId());
+	}
 
-		String sendMessageResult = builder.build().toString();
-		outputBuffer.writeBytes(sendMessageResult.getBytes());
-		FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, OK, outputBuffer);
-		HttpHeaders.setContentLength(res, outputBuffer.readableBytes());
-		return res;
+	/**
+	 * Validate the binary message to be publish
+	 * 
+	 * @param Message
+	 */
+	static void validateMessage(Message message) throws Exception {
+		if (message.getPublisher() == null || message.getPublisher().trim().equals(""))
+			throw new Exception("Error: Missing input field value publisher ");
+		if (message.getInfoType() == null || message.getInfoType().trim().equals(""))
+			throw new Exception("Error: Missing input field value infotype ");
+		if (message.getInfoFormat() == null || message.getInfoFormat().trim().equals(""))
+			throw new Exception("Error: Missing input field value infoformat ");
 	}
 
 	/**
@@ -108,7 +148,7 @@ public class MessageSenderHandler implements Callable<Object> {
 	 * 
 	 * @param JsonObject
 	 */
-	private void validateMessage(JsonObject message) throws Exception {
+	static void validateMessage(JsonObject message) throws Exception {
 
 		if (!message.containsKey("publisher"))
 			throw new Exception("Error: Missing input field publisher ");
@@ -2,6 +2,8 @@ package com.iotracks.iofabric.local_api;
 
 import com.iotracks.iofabric.message_bus.Message;
 
+import io.netty.util.Timeout;
+
 /**
  * Unacknowledged message with the try count.
  * @author ashita
@@ -11,6 +13,8 @@ public class MessageSentInfo {
 	Message message;
 	int sendTryCount = 0;
 	long timeMillis;
+	Timeout timeout;
+	final long firstSendNanoTime;
 	
 	
 
@@ -18,8 +22,36 @@ public class MessageSentInfo {
 		this.message = message;
 		this.sendTryCount = count;
 		this.timeMillis = timeMillis;
+		this.firstSendNanoTime = System.nanoTime();
+	}
+
+	/**
+	 * Get {@link System#nanoTime()} of the first send of the message
+	 * @param none
+	 * @return long
+	 */
+	public long getFirstSendNanoTime() {
+		return firstSendNanoTime;
 	}
 	
+	/**
+	 * Get pending retransmit of the message
+	 * @param none
+	 * @return Timeout
+	 */
+	public Timeout getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Save pending retransmit of the message
+	 * @param Timeout
+	 * @return void
+	 */
+	public void setTimeout(Timeout timeout) {
+		this.timeout = timeout;
+	}
+
 	public long getTimeMillis() {
 		return timeMillis;
 	}
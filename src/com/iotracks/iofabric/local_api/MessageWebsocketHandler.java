@@ -2,20 +2,23 @@ package com.iotracks.iofabric.local_api;
 
 import static io.netty.handler.codec.http.HttpHeaders.Names.HOST;
 
-import java.util.Hashtable;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 import com.iotracks.iofabric.message_bus.Message;
 import com.iotracks.iofabric.message_bus.MessageBus;
 import com.iotracks.iofabric.message_bus.MessageBusUtil;
+import com.iotracks.iofabric.message_bus.MessageCodec;
 import com.iotracks.iofabric.status_reporter.StatusReporter;
-import com.iotracks.iofabric.utils.BytesUtil;
+import com.iotracks.iofabric.utils.Constants;
 import com.iotracks.iofabric.utils.logging.LoggingService;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
-import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
@@ -25,22 +28,27 @@ import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
 /**
  * Hadler for the real-time message websocket Open real-time message websocket
  * Send and receive real-time messages
+ * After the handshake one handler is kept in the pipeline of each websocket
  * 
  * @author ashita
  * @since 2016
  */
-public class MessageWebsocketHandler {
+public class MessageWebsocketHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
 
 	private static final Byte OPCODE_PING = 0x9;
 	private static final Byte OPCODE_PONG = 0xA;
 	private static final Byte OPCODE_ACK = 0xB;
 	private static final Byte OPCODE_MSG = 0xD;
 	private static final Byte OPCODE_RECEIPT = 0xE;
+	private static final Byte OPCODE_ACK_CUMULATIVE = 0xF;
 
-	private final String MODULE_NAME = "Local API";
+	private static final String MODULE_NAME = "Local API";
 	private static final String WEBSOCKET_PATH = "/v2/message/socket";
+	private static final int MAX_FRAME_SIZE = 16 * Constants.MiB;
 
 	private WebSocketServerHandshaker handshaker;
+	private String publisherId;
+	private MessageSendQueue sendQueue;
 
 	/**
 	 * Handler to open the websocket for the real-time message websocket
@@ -53,7 +61,6 @@ public class MessageWebsocketHandler {
 		String uri = req.getUri();
 		uri = uri.substring(1);
 		String[] tokens = uri.split("/");
-		String publisherId;
 
 		if (tokens.length < 5) {
 			LoggingService.logWarning(MODULE_NAME, " Missing ID or ID value in URL ");
@@ -64,32 +71,85 @@ public class MessageWebsocketHandler {
 
 		// Handshake
 		WebSocketServerHandshakerFactory wsFactory = new WebSocketServerHandshakerFactory(getWebSocketLocation(req),
-				null, true, Integer.MAX_VALUE);
+				null, true, MAX_FRAME_SIZE);
 		handshaker = wsFactory.newHandshaker(req);
 		if (handshaker == null) {
 			WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(ctx.channel());
-		} else {
-			handshaker.handshake(ctx.channel(), req);
+			return;
 		}
+		handshaker.handshake(ctx.channel(), req).addListener((ChannelFutureListener) future -> {
+			if (future.isSuccess())
+				WebsocketUtil.switchToWebsocket(ctx, handshaker, WEBSOCKET_PATH, MAX_FRAME_SIZE, this);
+		});
+		return;
+	}
 
-		Hashtable<String, ChannelHandlerContext> messageSocketMap = WebSocketMap.messageWebsocketMap;
-		messageSocketMap.put(publisherId, ctx);
-		StatusReporter.setLocalApiStatus().setOpenConfigSocketsCount(WebSocketMap.messageWebsocketMap.size());
+	/**
+	 * Registers the websocket and enables real-time receiving
+	 * once the handler has been added to the pipeline
+	 * 
+	 * @param ChannelHandlerContext
+	 * @return void
+	 */
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		Map<String, ChannelHandlerContext> messageSocketMap = WebSocketMap.messageWebsocketMap;
+		WebsocketUtil.addWebsocketContextToMap(ctx, publisherId, messageSocketMap);
+		sendQueue = new MessageSendQueue(publisherId, ctx);
+		WebSocketMap.messageSendQueueMap.put(ctx, sendQueue);
+		StatusReporter.setLocalApiStatus().setOpenMessageSocketsCount(WebSocketMap.messageWebsocketMap.size());
 		MessageBus.getInstance().enableRealTimeReceiving(publisherId);
 
 		LoggingService.logInfo(MODULE_NAME, "Handshake end....");
-		return;
+	}
+
+	/**
+	 * Disables real-time receiving and unregisters the websocket when the channel is closed
+	 * 
+	 * @param ChannelHandlerContext
+	 * @return void
+	 */
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		if (WebsocketUtil.hasContextInMap(ctx, WebSocketMap.messageWebsocketMap))
+			MessageBus.getInstance().disableRealTimeReceiving(publisherId);
+		WebsocketUtil.removeWebsocketContextFromMap(ctx, WebSocketMap.messageWebsocketMap);
+		WebSocketMap.messageSendQueueMap.remove(ctx);
+		sendQueue.close();
+		StatusReporter.setLocalApiStatus().setOpenMessageSocketsCount(WebSocketMap.messageWebsocketMap.size());
+		ctx.fireChannelInactive();
+	}
+
+	/**
+	 * Resumes sending of the queued real-time messages when the channel becomes writable
+	 * 
+	 * @param ChannelHandlerContext
+	 * @return void
+	 */
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		if (ctx.channel().isWritable())
+			sendQueue.flush();
+		ctx.fireChannelWritabilityChanged();
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+		LoggingService.logWarning(MODULE_NAME, "Closing real-time message websocket of " + publisherId + ": " + cause.getMessage());
+		ctx.close();
 	}
 
 	/**
 	 * Handler for the real-time messages Receive ping and send pong Sending and
 	 * receiving real-time messages
+	 * Close frames are handled by {@link LocalApiWebSocketProtocolHandler}
 	 * 
 	 * @param ChannelHandlerContext,
 	 *            WebSocketFrame
 	 * @return void
 	 */
-	public void handleWebSocketFrame(ChannelHandlerContext ctx, WebSocketFrame frame) throws Exception {
+	@Override
+	protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) throws Exception {
 
 		if (frame instanceof PingWebSocketFrame) {
 			ByteBuf buffer = frame.content();
@@ -97,7 +157,7 @@ public class MessageWebsocketHandler {
 				Byte opcode = buffer.readByte();
 				if (opcode == OPCODE_PING.intValue()) {
 					if (WebsocketUtil.hasContextInMap(ctx, WebSocketMap.messageWebsocketMap)) {
-						ByteBuf buffer1 = ctx.alloc().buffer();
+						ByteBuf buffer1 = ctx.alloc().buffer(1);
 						buffer1.writeByte(OPCODE_PONG.intValue());
 						ctx.channel().writeAndFlush(new PongWebSocketFrame(buffer1));
 					}
@@ -115,31 +175,23 @@ public class MessageWebsocketHandler {
 				return;
 			}
 
-			byte[] byteArray = new byte[input.readableBytes()];
 			int readerIndex = input.readerIndex();
-			input.getBytes(readerIndex, byteArray);
-			Byte opcode = 0;
-
-			if(byteArray.length >= 1){
-				opcode = byteArray[0];
-			}else{
-				return;
-			}
+			Byte opcode = input.getByte(readerIndex);
 
 			if (opcode == OPCODE_MSG.intValue()) {
-				if (byteArray.length >= 2) {
-					opcode = byteArray[0];
+				if (input.readableBytes() >= 5) {
 					Message message = null;
 
 					if (WebsocketUtil.hasContextInMap(ctx, WebSocketMap.messageWebsocketMap)) {
 
-						int totalMsgLength = BytesUtil.bytesToInteger(BytesUtil.copyOfRange(byteArray, 1, 5));
+						int totalMsgLength = input.getInt(readerIndex + 1);
 						try {
-							message = new Message(BytesUtil.copyOfRange(byteArray, 5, totalMsgLength + 5));
+							message = MessageCodec.decode(input.nioBuffer(readerIndex + 5, totalMsgLength));
 							LoggingService.logInfo(MODULE_NAME, message.toString());
 						} catch (Exception e) {
 							LoggingService.logInfo(MODULE_NAME, "wrong message format  " + e.getMessage());
 							LoggingService.logInfo(MODULE_NAME, "Validation fail");
+							return;
 						}
 
 						MessageBusUtil messageBus = new MessageBusUtil();
@@ -147,74 +199,68 @@ public class MessageWebsocketHandler {
 
 						String messageId = message.getId();
 						Long msgTimestamp = message.getTimestamp();
-						ByteBuf buffer1 = ctx.alloc().buffer();
+						byte[] messageIdBytes = messageId.getBytes();
+						ByteBuf buffer1 = ctx.alloc().buffer(3 + messageIdBytes.length + Long.BYTES);
 
 						buffer1.writeByte(OPCODE_RECEIPT.intValue());
 
 						// send Length
-						int msgIdLength = messageId.length();
-						buffer1.writeByte(msgIdLength);
+						buffer1.writeByte(messageIdBytes.length);
 						buffer1.writeByte(Long.BYTES);
 
 						// Send opcode, id and timestamp
-						buffer1.writeBytes(messageId.getBytes());
-						buffer1.writeBytes(BytesUtil.longToBytes(msgTimestamp));
-						ctx.channel().write(new BinaryWebSocketFrame(buffer1));
+						buffer1.writeBytes(messageIdBytes);
+						buffer1.writeLong(msgTimestamp);
+						ctx.channel().writeAndFlush(new BinaryWebSocketFrame(buffer1));
 					}
 					return;
 				}
-			} else if (opcode == OPCODE_ACK.intValue()) {
-				WebSocketMap.unackMessageSendingMap.remove(ctx);
+			} else if (opcode == OPCODE_ACK.intValue() || opcode == OPCODE_ACK_CUMULATIVE.intValue()) {
+				if (!WebsocketUtil.hasContextInMap(ctx, WebSocketMap.messageWebsocketMap))
+					return;
+
+				// optional message id, 1 byte length followed by the id
+				String messageId = null;
+				if (input.readableBytes() > 1) {
+					int idLength = input.getUnsignedByte(readerIndex + 1);
+					if (input.readableBytes() < 2 + idLength) {
+						LoggingService.logInfo(MODULE_NAME, "wrong acknowledgement format");
+						return;
+					}
+					messageId = input.toString(readerIndex + 2, idLength, StandardCharsets.UTF_8);
+				}
+
+				if (opcode == OPCODE_ACK.intValue())
+					sendQueue.acknowledge(messageId);
+				else if (messageId != null)
+					sendQueue.acknowledgeUpTo(messageId);
 				return;
 			}
 			
 			return;
 		}
-
-		// Check for closing frame
-		if (frame instanceof CloseWebSocketFrame) {
-			ctx.channel().close();
-			MessageBus.getInstance()
-			.disableRealTimeReceiving(WebsocketUtil.getIdForWebsocket(ctx, WebSocketMap.messageWebsocketMap));
-			WebsocketUtil.removeWebsocketContextFromMap(ctx, WebSocketMap.messageWebsocketMap);
-			StatusReporter.setLocalApiStatus().setOpenConfigSocketsCount(WebSocketMap.messageWebsocketMap.size());
-			return;
-		}
 	}
 
 	/**
 	 * Helper to send real-time messages
+	 * Message is added to the send queue of the websocket, which writes it
+	 * when the channel is writable and the container has credits
 	 * 
 	 * @param String,
 	 *            Message
 	 * @return void
 	 */
-	public void sendRealTimeMessage(String receiverId, Message message) {
+	public static void sendRealTimeMessage(String receiverId, Message message) {
 		ChannelHandlerContext ctx = null;
-		Hashtable<String, ChannelHandlerContext> messageSocketMap = WebSocketMap.messageWebsocketMap;
-
-		if (messageSocketMap != null && messageSocketMap.containsKey(receiverId)) {
-			ctx = messageSocketMap.get(receiverId);
-			WebSocketMap.unackMessageSendingMap.put(ctx, new MessageSentInfo(message, 1, System.currentTimeMillis()));
-			ByteBuf buffer1 = ctx.alloc().buffer(Integer.MAX_VALUE);
-
-			// Send Opcode
-			buffer1.writeByte(OPCODE_MSG);
-			int totalMsgLength = 0;
-
-			byte[] bytesMsg = null;
-			try {
-				bytesMsg = message.getBytes();
-			} catch (Exception e) {
-				LoggingService.logWarning(MODULE_NAME, "Problem in retrieving the message");
-			}
+		Map<String, ChannelHandlerContext> messageSocketMap = WebSocketMap.messageWebsocketMap;
 
-			totalMsgLength = bytesMsg.length;
-			// Total Length
-			buffer1.writeBytes(BytesUtil.integerToBytes(totalMsgLength));
-			// Message
-			buffer1.writeBytes(bytesMsg);
-			ctx.channel().writeAndFlush(new BinaryWebSocketFrame(buffer1));
+		if (messageSocketMap != null && (ctx = messageSocketMap.get(receiverId)) != null) {
+			MessageSendQueue sendQueue = WebSocketMap.messageSendQueueMap.get(ctx);
+			if (sendQueue == null) {
+				LoggingService.logWarning(MODULE_NAME, "No send queue found for " + receiverId);
+				return;
+			}
+			sendQueue.offer(message);
 		} else {
 			LoggingService.logWarning(MODULE_NAME, "No active real-time websocket found for " + receiverId);
 		}
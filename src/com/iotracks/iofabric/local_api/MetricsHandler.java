@@ -0,0 +1,236 @@
+package com.iotracks.iofabric.local_api;
+
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import com.iotracks.iofabric.message_bus.MessageBus;
+import com.iotracks.iofabric.message_bus.MessageBusStatus;
+import com.iotracks.iofabric.status_reporter.StatusReporter;
+import com.iotracks.iofabric.utils.configuration.Configuration;
+import com.iotracks.iofabric.utils.logging.LoggingService;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+/**
+ * Handler to get the metrics of the fabric in OpenMetrics text format
+ * Metrics are read from the counters kept by the message bus and the Local API
+ * and written straight into the response buffer, nothing is locked while rendering
+ *
+ * @author ashita
+ * @since 2016
+ */
+public class MetricsHandler implements Callable<Object> {
+
+	private final String MODULE_NAME = "Local API";
+	static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+	private final HttpRequest req;
+	private ByteBuf outputBuffer;
+
+	public MetricsHandler(HttpRequest req, ByteBuf outputBuffer) {
+		this.req = req;
+		this.outputBuffer = outputBuffer;
+	}
+
+	/**
+	 * Handler method to get the metrics
+	 *
+	 * @param None
+	 * @return Object
+	 */
+	public Object handleMetricsRequest() {
+		if (req.getMethod() != GET) {
+			LoggingService.logWarning(MODULE_NAME, "Request method not allowed");
+			return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED, outputBuffer);
+		}
+
+		writeMessageBusMetrics();
+		writeWebsocketMetrics();
+		writeJvmMetrics();
+		write("# EOF\n");
+
+		FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, OK, outputBuffer);
+		res.headers().set(HttpHeaders.Names.CONTENT_TYPE, CONTENT_TYPE);
+		HttpHeaders.setContentLength(res, outputBuffer.readableBytes());
+		return res;
+	}
+
+	/**
+	 * Message counts, archived bytes and queues of the elements
+	 * Queue bytes of the message bus are limited by the memory limit of the configuration
+	 *
+	 * @param None
+	 * @return void
+	 */
+	private void writeMessageBusMetrics() {
+		MessageBusStatus status = StatusReporter.getMessageBusStatus();
+
+		writeFamily("iofabric_messages_published", "counter", "Messages published by element.");
+		writeCounters("iofabric_messages_published_total", status.getPublishedMessagesPerElement());
+
+		writeFamily("iofabric_messages_received", "counter", "Messages received by element.");
+		writeCounters("iofabric_messages_received_total", status.getReceivedMessagesPerElement());
+
+		writeFamily("iofabric_archive_written_bytes", "counter", "Bytes of messages archived by publisher element.");
+		writeCounters("iofabric_archive_written_bytes_total", status.getArchivedBytesPerElement());
+
+		writeFamily("iofabric_messages_dropped", "counter", "Messages dropped because message bus queue of receiver element was full.");
+		writeCounters("iofabric_messages_dropped_total", status.getDroppedMessagesPerElement());
+
+		MessageBus messageBus = MessageBus.getInstance();
+		writeFamily("iofabric_queue_messages", "gauge", "Messages waiting in message bus queue of receiver element.");
+		for (String receiver : messageBus.getReceiverIds()) {
+			long depth = messageBus.getQueueDepth(receiver);
+			if (depth >= 0)
+				writeSample("iofabric_queue_messages", "element", receiver, depth);
+		}
+
+		writeFamily("iofabric_queue_bytes", "gauge", "Memory used by message bus queue of receiver element.");
+		for (String receiver : messageBus.getReceiverIds()) {
+			long bytes = messageBus.getQueueBytes(receiver);
+			if (bytes >= 0)
+				writeSample("iofabric_queue_bytes", "element", receiver, bytes);
+		}
+
+		writeFamily("iofabric_queue_limit_bytes", "gauge", "Memory limit of all message bus queues.");
+		writeSample("iofabric_queue_limit_bytes", null, null, (long) (Configuration.getMemoryLimit() * 1_000_000));
+	}
+
+	/**
+	 * Open websockets, real-time send queues and unacknowledged sends
+	 *
+	 * @param None
+	 * @return void
+	 */
+	private void writeWebsocketMetrics() {
+		writeFamily("iofabric_websockets", "gauge", "Open websockets.");
+		writeSample("iofabric_websockets", "type", "message", WebSocketMap.messageWebsocketMap.size());
+		writeSample("iofabric_websockets", "type", "control", WebSocketMap.controlWebsocketMap.size());
+
+		writeFamily("iofabric_websocket_queue_messages", "gauge", "Real-time messages waiting to be sent to element.");
+		for (MessageSendQueue sendQueue : WebSocketMap.messageSendQueueMap.values())
+			writeSample("iofabric_websocket_queue_messages", "element", sendQueue.getReceiverId(), sendQueue.getQueuedCount());
+
+		writeFamily("iofabric_websocket_queue_bytes", "gauge", "Size of real-time messages waiting to be sent to element.");
+		for (MessageSendQueue sendQueue : WebSocketMap.messageSendQueueMap.values())
+			writeSample("iofabric_websocket_queue_bytes", "element", sendQueue.getReceiverId(), sendQueue.getQueuedBytes());
+
+		writeFamily("iofabric_websocket_unacknowledged_messages", "gauge", "Real-time messages sent to element and not acknowledged yet.");
+		for (MessageSendQueue sendQueue : WebSocketMap.messageSendQueueMap.values())
+			writeSample("iofabric_websocket_unacknowledged_messages", "element", sendQueue.getReceiverId(), sendQueue.getUnacknowledgedCount());
+
+		writeFamily("iofabric_websocket_unacknowledged_control_signals", "gauge", "Control signals sent and not acknowledged yet.");
+		writeSample("iofabric_websocket_unacknowledged_control_signals", null, null, WebSocketMap.unackControlSignalsMap.size());
+	}
+
+	/**
+	 * Memory, garbage collection and threads of the JVM
+	 *
+	 * @param None
+	 * @return void
+	 */
+	private void writeJvmMetrics() {
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+
+		writeFamily("jvm_memory_used_bytes", "gauge", "Used memory of the JVM.");
+		writeSample("jvm_memory_used_bytes", "area", "heap", heap.getUsed());
+		writeSample("jvm_memory_used_bytes", "area", "nonheap", nonHeap.getUsed());
+
+		writeFamily("jvm_memory_committed_bytes", "gauge", "Committed memory of the JVM.");
+		writeSample("jvm_memory_committed_bytes", "area", "heap", heap.getCommitted());
+		writeSample("jvm_memory_committed_bytes", "area", "nonheap", nonHeap.getCommitted());
+
+		writeFamily("jvm_memory_max_bytes", "gauge", "Maximum memory of the JVM, -1 if undefined.");
+		writeSample("jvm_memory_max_bytes", "area", "heap", heap.getMax());
+		writeSample("jvm_memory_max_bytes", "area", "nonheap", nonHeap.getMax());
+
+		writeFamily("jvm_gc_collections", "counter", "Garbage collections of the JVM.");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			if (gc.getCollectionCount() >= 0)
+				writeSample("jvm_gc_collections_total", "gc", gc.getName(), gc.getCollectionCount());
+
+		writeFamily("jvm_gc_collection_seconds", "counter", "Time spent in garbage collections of the JVM.");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			if (gc.getCollectionTime() >= 0)
+				writeSample("jvm_gc_collection_seconds_total", "gc", gc.getName(), gc.getCollectionTime() / 1000.0);
+
+		writeFamily("jvm_threads", "gauge", "Live threads of the JVM.");
+		writeSample("jvm_threads", null, null, ManagementFactory.getThreadMXBean().getThreadCount());
+	}
+
+	private void writeFamily(String name, String type, String help) {
+		write("# TYPE ");
+		write(name);
+		write(" ");
+		write(type);
+		write("\n# HELP ");
+		write(name);
+		write(" ");
+		write(help);
+		write("\n");
+	}
+
+	private void writeCounters(String name, Map<String, Long> counters) {
+		counters.forEach((element, count) -> writeSample(name, "element", element, count));
+	}
+
+	private void writeSample(String name, String label, String labelValue, long value) {
+		writeName(name, label, labelValue);
+		write(Long.toString(value));
+		write("\n");
+	}
+
+	private void writeSample(String name, String label, String labelValue, double value) {
+		writeName(name, label, labelValue);
+		write(Double.toString(value));
+		write("\n");
+	}
+
+	/**
+	 * Writes metric name and label, followed by a space
+	 * Backslash, double quote and line feed are escaped in the label value
+	 *
+	 * @param String, String, String
+	 * @return void
+	 */
+	private void writeName(String name, String label, String labelValue) {
+		write(name);
+		if (label != null) {
+			write("{");
+			write(label);
+			write("=\"");
+			write(labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"));
+			write("\"}");
+		}
+		write(" ");
+	}
+
+	private void write(String text) {
+		ByteBufUtil.writeUtf8(outputBuffer, text);
+	}
+
+	/**
+	 * Overriden method of the Callable interface which call the handler method
+	 *
+	 * @param None
+	 * @return Object
+	 */
+	@Override
+	public Object call() throws Exception {
+		return handleMetricsRequest();
+	}
+}
@@ -0,0 +1,141 @@
+package com.iotracks.iofabric.local_api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.iotracks.iofabric.message_bus.ArchiveCursor;
+import com.iotracks.iofabric.message_bus.Message;
+import com.iotracks.iofabric.message_bus.MessageBusUtil;
+import com.iotracks.iofabric.utils.Constants;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+
+/**
+ * Chunked input to stream the result of a message query.
+ * Messages are read from archive cursors of the publishers
+ * and written as JSON, or as length prefixed binary messages,
+ * while the response is being sent
+ * @author ashita
+ * @since 2016
+ */
+public class QueryMessageChunkedInput implements ChunkedInput<ByteBuf> {
+	private final int CHUNK_SIZE = 16 * Constants.KiB;
+
+	private final MessageBusUtil bus;
+	private final String receiverId;
+	private final List<String> publishers;
+	private final long timeframeStart;
+	private final long timeframeEnd;
+	private final boolean binary;
+
+	private int publisherIndex;
+	private ArchiveCursor cursor;
+	private int msgCount;
+	private long actualTimeframeEnd;
+	private boolean started;
+	private boolean ended;
+
+	public QueryMessageChunkedInput(String receiverId, List<String> publishers, long timeframeStart, long timeframeEnd, boolean binary) {
+		this.bus = new MessageBusUtil();
+		this.receiverId = receiverId;
+		this.publishers = publishers;
+		this.timeframeStart = timeframeStart;
+		this.timeframeEnd = timeframeEnd;
+		this.actualTimeframeEnd = timeframeEnd;
+		this.binary = binary;
+	}
+
+	/**
+	 * Returns true when the whole response has been read
+	 * @param None
+	 * @return boolean
+	 */
+	@Override
+	public boolean isEndOfInput() throws Exception {
+		return ended;
+	}
+
+	/**
+	 * Closes the archive cursor in use
+	 * @param None
+	 * @return void
+	 */
+	@Override
+	public void close() throws Exception {
+		if (cursor != null) {
+			cursor.close();
+			cursor = null;
+		}
+		publisherIndex = publishers.size();
+	}
+
+	/**
+	 * Reads the next part of the response, up to the chunk size
+	 * @param ChannelHandlerContext
+	 * @return ByteBuf
+	 */
+	@Override
+	public ByteBuf readChunk(ChannelHandlerContext ctx) throws Exception {
+		if (ended)
+			return null;
+
+		ByteBuf chunk = ctx.alloc().buffer(CHUNK_SIZE);
+		try {
+			if (!started && !binary) {
+				started = true;
+				writeString(chunk, "{\"status\":\"okay\",\"timeframestart\":" + timeframeStart + ",\"messages\":[");
+			}
+
+			while (chunk.readableBytes() < CHUNK_SIZE) {
+				Message msg = nextMessage();
+				if (msg == null && binary) {
+					ended = true;
+					break;
+				}
+				if (msg == null) {
+					writeString(chunk, "],\"count\":" + msgCount + ",\"timeframeend\":" + actualTimeframeEnd + "}");
+					ended = true;
+					break;
+				}
+				if (binary)
+					BinaryMessageContent.writeFrame(chunk, msg);
+				else {
+					if (msgCount > 0)
+						chunk.writeByte(',');
+					writeString(chunk, msg.toJson().toString());
+				}
+				msgCount++;
+				actualTimeframeEnd = msg.getTimestamp();
+			}
+			return chunk;
+		} catch (Exception e) {
+			chunk.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the next message from the cursors of the publishers
+	 * @param None
+	 * @return Message
+	 */
+	private Message nextMessage() {
+		while (publisherIndex < publishers.size()) {
+			if (cursor == null)
+				cursor = bus.messageQuery(publishers.get(publisherIndex), receiverId, timeframeStart, timeframeEnd);
+			if (cursor != null && cursor.hasNext())
+				return cursor.next();
+			if (cursor != null)
+				cursor.close();
+			cursor = null;
+			publisherIndex++;
+		}
+		return null;
+	}
+
+	private void writeString(ByteBuf buf, String str) {
+		buf.writeBytes(str.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -4,28 +4,27 @@ import static io.netty.handler.codec.http.HttpMethod.*;
 import static io.netty.handler.codec.http.HttpResponseStatus.*;
 import static io.netty.handler.codec.http.HttpVersion.*;
 
-import java.io.StringReader;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 
 import javax.json.Json;
 import javax.json.JsonArray;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonBuilderFactory;
 import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
 import javax.json.JsonReader;
 
-import com.iotracks.iofabric.message_bus.Message;
-import com.iotracks.iofabric.message_bus.MessageBusUtil;
 import com.iotracks.iofabric.utils.logging.LoggingService;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
-import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 
 /**
@@ -40,9 +39,9 @@ public class QueryMessageReceiverHandler implements Callable<Object> {
 
 	private final HttpRequest req;
 	private ByteBuf outputBuffer;
-	private final byte[] content;
+	private final ByteBuf content;
 
-	public QueryMessageReceiverHandler(HttpRequest req, ByteBuf outputBuffer, byte[] content) {
+	public QueryMessageReceiverHandler(HttpRequest req, ByteBuf outputBuffer, ByteBuf content) {
 		this.req = req;
 		this.outputBuffer = outputBuffer;
 		this.content = content;
@@ -50,7 +49,7 @@ public class QueryMessageReceiverHandler implements Callable<Object> {
 
 	/**
 	 * Handler method to deliver the messages to the receiver as per the query.
-	 * Get the messages from message bus
+	 * Messages are streamed from message bus archive with chunked response
 	 * 
 	 * @param None
 	 * @return Object
@@ -60,7 +59,7 @@ public class QueryMessageReceiverHandler implements Callable<Object> {
 
 		if (req.getMethod() != POST) {
 			LoggingService.logWarning(MODULE_NAME, "Request method not allowed");
-			return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED);
+			return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED, outputBuffer);
 		}
 
 		if (!(headers.get(HttpHeaders.Names.CONTENT_TYPE).equals("application/json"))) {
@@ -70,8 +69,7 @@ public class QueryMessageReceiverHandler implements Callable<Object> {
 			return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.BAD_REQUEST, outputBuffer);
 		}
 
-		String requestBody = new String(content, StandardCharsets.UTF_8);
-		JsonReader reader = Json.createReader(new StringReader(requestBody));
+		JsonReader reader = Json.createReader(new InputStreamReader(new ByteBufInputStream(content), StandardCharsets.UTF_8));
 		JsonObject jsonObject = reader.readObject();
 
 		try {
@@ -86,44 +84,19 @@ public class QueryMessageReceiverHandler implements Callable<Object> {
 		String receiverId = jsonObject.getString("id");
 		long timeframeStart = Long.parseLong(jsonObject.get("timeframestart").toString());
 		long timeframeEnd = Long.parseLong(jsonObject.get("timeframeend").toString());
-		long actualTimeframeEnd = timeframeEnd;
 		
 		JsonArray publishersArray = jsonObject.getJsonArray("publishers");
-
-		JsonBuilderFactory factory = Json.createBuilderFactory(null);
-		JsonObjectBuilder builder = factory.createObjectBuilder();
-		JsonArrayBuilder messagesArray = factory.createArrayBuilder();
-
-		MessageBusUtil bus = new MessageBusUtil();
-		int msgCount = 0;
-
-		for (int i = 0; i < publishersArray.size(); i++) {
-			String publisherId = publishersArray.getString(i);
-
-			List<Message> messageList = bus.messageQuery(publisherId, receiverId, timeframeStart, timeframeEnd);
-
-			if (messageList != null) {
-				for (Message msg : messageList) {
-					JsonObject msgJson = msg.toJson();
-					messagesArray.add(msgJson);
-					msgCount++;
-				}
-				
-				actualTimeframeEnd = messageList.get(messageList.size()-1).getTimestamp();
-			}
-		}
-
-		builder.add("status", "okay");
-		builder.add("count", msgCount);
-		builder.add("timeframestart", timeframeStart);
-		builder.add("timeframeend", actualTimeframeEnd);
-		builder.add("messages", messagesArray);
-
-		String result = builder.build().toString();
-		outputBuffer.writeBytes(result.getBytes());
-		FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, OK, outputBuffer);
-		HttpHeaders.setContentLength(res, outputBuffer.readableBytes());
-		return res;
+		List<String> publishers = new ArrayList<>();
+		for (int i = 0; i < publishersArray.size(); i++)
+			publishers.add(publishersArray.getString(i));
+
+		outputBuffer.release();
+		String binaryType = BinaryMessageContent.getAcceptedBinaryType(headers);
+		HttpResponse res = new DefaultHttpResponse(HTTP_1_1, OK);
+		res.headers().set(HttpHeaders.Names.CONTENT_TYPE, binaryType != null ? binaryType : "application/json");
+		HttpHeaders.setTransferEncodingChunked(res);
+		QueryMessageChunkedInput messages = new QueryMessageChunkedInput(receiverId, publishers, timeframeStart, timeframeEnd, binaryType != null);
+		return new ChunkedHttpResponse(res, new HttpChunkedInput(messages));
 	}
 
 	/**
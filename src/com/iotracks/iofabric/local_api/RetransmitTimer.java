@@ -0,0 +1,46 @@
+package com.iotracks.iofabric.local_api;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Timer for sending again unacknowledged messages and control signals
+ * Each send has its own deadline, which doubles with every try,
+ * so nothing has to scan the unacknowledged sends periodically
+ * @author ashita
+ * @since 2016
+ */
+public class RetransmitTimer {
+	static final long INITIAL_TIMEOUT = 500;
+	static final long MAX_TIMEOUT = 20 * 1000;
+	static final int MAX_TRIES = 10;
+
+	private static final HashedWheelTimer timer = new HashedWheelTimer(
+			new DefaultThreadFactory("local-api-retransmit", true), 10, TimeUnit.MILLISECONDS);
+
+	private RetransmitTimer() {
+	}
+
+	/**
+	 * Schedules the task to run when the send with the given try count is due
+	 * @param TimerTask, int
+	 * @return Timeout
+	 */
+	public static Timeout schedule(TimerTask task, int tryCount) {
+		return timer.newTimeout(task, getTimeout(tryCount), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the time to wait for the acknowledgement of the given try
+	 * @param int
+	 * @return long
+	 */
+	static long getTimeout(int tryCount) {
+		int shift = Math.max(0, Math.min(tryCount - 1, 16));
+		return Math.min(MAX_TIMEOUT, INITIAL_TIMEOUT << shift);
+	}
+}
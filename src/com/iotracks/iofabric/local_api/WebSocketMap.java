@@ -1,21 +1,28 @@
 package com.iotracks.iofabric.local_api;
 
-import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.AttributeKey;
 
 /**
  * Real-time message and cotrol open websockets map.
- * Unacknowledged messages and control signals map.
+ * Real-time message send queues map.
+ * Unacknowledged control signals map.
+ * Id of a websocket is kept as attribute of its channel,
+ * so a websocket is found without walking the maps.
  * @author ashita
  * @since 2016
  */
 public class WebSocketMap {
-	static Hashtable<String, ChannelHandlerContext> controlWebsocketMap;
-	static Hashtable<String, ChannelHandlerContext> messageWebsocketMap;
+	static final AttributeKey<String> SOCKET_ID = AttributeKey.valueOf("websocketId");
+
+	static Map<String, ChannelHandlerContext> controlWebsocketMap;
+	static Map<String, ChannelHandlerContext> messageWebsocketMap;
+	static Map<ChannelHandlerContext, MessageSendQueue> messageSendQueueMap;
 	
-	static Hashtable<ChannelHandlerContext, MessageSentInfo> unackMessageSendingMap;
-	static Hashtable<ChannelHandlerContext, ControlSignalSentInfo> unackControlSignalsMap;
+	static Map<ChannelHandlerContext, ControlSignalSentInfo> unackControlSignalsMap;
 
 	private static WebSocketMap instance = null;
 
@@ -25,7 +32,7 @@ public class WebSocketMap {
 	
 	/**
 	 * Singleton Real-time message and cotrol open websockets map.
-	 * Singleton unacknowledged messages and control signals map.
+	 * Singleton unacknowledged control signals map.
 	 * @param None
 	 * @return WebSocketMap
 	 */
@@ -34,10 +41,10 @@ public class WebSocketMap {
 			synchronized (WebSocketMap.class) {
 				if(instance == null){
 					instance = new WebSocketMap();
-					controlWebsocketMap = new Hashtable<String, ChannelHandlerContext>();
-					messageWebsocketMap = new Hashtable<String, ChannelHandlerContext>();
-					unackMessageSendingMap = new Hashtable<ChannelHandlerContext, MessageSentInfo>();
-					unackControlSignalsMap = new Hashtable<ChannelHandlerContext, ControlSignalSentInfo>();
+					controlWebsocketMap = new ConcurrentHashMap<String, ChannelHandlerContext>();
+					messageWebsocketMap = new ConcurrentHashMap<String, ChannelHandlerContext>();
+					messageSendQueueMap = new ConcurrentHashMap<ChannelHandlerContext, MessageSendQueue>();
+					unackControlSignalsMap = new ConcurrentHashMap<ChannelHandlerContext, ControlSignalSentInfo>();
 				}
 			}
 		}
@@ -1,12 +1,15 @@
 package com.iotracks.iofabric.local_api;
 
-import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.Map;
 
 import com.iotracks.iofabric.utils.logging.LoggingService;
 
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.handler.stream.ChunkedWriteHandler;
 
 /**
  * Utility class for the real-time message and control websockets
@@ -16,52 +19,63 @@ import io.netty.channel.ChannelHandlerContext;
 public class WebsocketUtil {
 	private static final String MODULE_NAME = "Local API";
 	
+	/**
+	 * Replace the HTTP handlers of the channel with the websocket handlers after the handshake
+	 * Frames are aggregated up to the maximum frame size and passed to the websocket handler
+	 * @param ChannelHandlerContext, WebSocketServerHandshaker, String, int, ChannelHandler
+	 * @return void
+	 */
+	public static void switchToWebsocket(ChannelHandlerContext ctx, WebSocketServerHandshaker handshaker, String websocketPath,
+			int maxFrameSize, ChannelHandler handler) {
+		ChannelPipeline pipeline = ctx.pipeline();
+		if (pipeline.get(ChunkedWriteHandler.class) != null)
+			pipeline.remove(ChunkedWriteHandler.class);
+		pipeline.addBefore(ctx.name(), "wsaggregator", new WebSocketFrameAggregator(maxFrameSize));
+		pipeline.addBefore(ctx.name(), "wsprotocol", new LocalApiWebSocketProtocolHandler(websocketPath, handshaker, maxFrameSize));
+		pipeline.replace(ctx.name(), "wshandler", handler);
+	}
+
+	/**
+	 * Add opened websocket to the open websocket map
+	 * Id is saved as attribute of the channel
+	 * @param ChannelHandlerContext, String, Map<String, ChannelHandlerContext>
+	 * @return void
+	 */
+	public static void addWebsocketContextToMap(ChannelHandlerContext ctx, String id, Map<String, ChannelHandlerContext> socketMap){
+		ctx.channel().attr(WebSocketMap.SOCKET_ID).set(id);
+		socketMap.put(id, ctx);
+	}
+	
 	/**
 	 * Remove inactive websocket from the open websocket map
-	 * @param ChannelHandlerContext, Hashtable<String, ChannelHandlerContext>
+	 * @param ChannelHandlerContext, Map<String, ChannelHandlerContext>
 	 * @return void
 	 */
-	public static void removeWebsocketContextFromMap(ChannelHandlerContext ctx, Hashtable<String, ChannelHandlerContext> socketMap){
-		for (Iterator<Map.Entry<String,ChannelHandlerContext>> it = socketMap.entrySet().iterator(); it.hasNext();) {
-			Map.Entry<String,ChannelHandlerContext> e = it.next();
-			if (ctx.equals(e.getValue())) {
-				LoggingService.logInfo(MODULE_NAME,"Removing real-time websocket context for the id: " + e.getKey());
-				it.remove();
-			}
-		}
+	public static void removeWebsocketContextFromMap(ChannelHandlerContext ctx, Map<String, ChannelHandlerContext> socketMap){
+		String id = ctx.channel().attr(WebSocketMap.SOCKET_ID).get();
+		if (id != null && socketMap.remove(id, ctx))
+			LoggingService.logInfo(MODULE_NAME,"Removing real-time websocket context for the id: " + id);
 	}
 	
 	/**
 	 * Check if the container has open real-time websocket
-	 * @param ChannelHandlerContext, Hashtable<String, ChannelHandlerContext>
+	 * @param ChannelHandlerContext, Map<String, ChannelHandlerContext>
 	 * @return boolean
 	 */
-	public static boolean hasContextInMap(ChannelHandlerContext ctx, Hashtable<String, ChannelHandlerContext> socketMap) throws Exception{
-		for (Iterator<Map.Entry<String,ChannelHandlerContext>> it = socketMap.entrySet().iterator(); it.hasNext();) {
-			Map.Entry<String,ChannelHandlerContext> e = it.next();
-			if (ctx.equals(e.getValue())) {
-				LoggingService.logInfo(MODULE_NAME,"Context found as real-time websocket");
-				return true;
-			}
-		}
-		LoggingService.logInfo(MODULE_NAME,"Context found as real-time websocket");
-		return false;
+	public static boolean hasContextInMap(ChannelHandlerContext ctx, Map<String, ChannelHandlerContext> socketMap) throws Exception{
+		return !getIdForWebsocket(ctx, socketMap).isEmpty();
 	}
 	
 	/**
 	 * Get id for the real-time socket channel
-	 * @param ChannelHandlerContext, Hashtable<String, ChannelHandlerContext>
+	 * Returns empty id if the channel is not open websocket in the map
+	 * @param ChannelHandlerContext, Map<String, ChannelHandlerContext>
 	 * @return String
 	 */
-	public static String getIdForWebsocket(ChannelHandlerContext ctx, Hashtable<String, ChannelHandlerContext> socketMap){
-		String id = "";
-		for (Iterator<Map.Entry<String,ChannelHandlerContext>> it = socketMap.entrySet().iterator(); it.hasNext();) {
-			Map.Entry<String,ChannelHandlerContext> e = it.next();
-			if (ctx.equals(e.getValue())) {
-				LoggingService.logInfo(MODULE_NAME,"Context found as real-time websocket");
-				return e.getKey();
-			}
-		}
-		return id;
+	public static String getIdForWebsocket(ChannelHandlerContext ctx, Map<String, ChannelHandlerContext> socketMap){
+		String id = ctx.channel().attr(WebSocketMap.SOCKET_ID).get();
+		if (id != null && ctx.equals(socketMap.get(id)))
+			return id;
+		return "";
 	}
 }
@@ -0,0 +1,269 @@
+package com.iotracks.iofabric.message_bus;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.iotracks.iofabric.element.Element;
+import com.iotracks.iofabric.utils.logging.LoggingService;
+
+/**
+ * cursor over archived {@link Message} of an {@link Element} within a time frame
+ * records are read from disk on demand, one at a time
+ *
+ * position of cursor can be saved as a token and used later to resume the query
+ *
+ * @author saeid
+ *
+ */
+public class ArchiveCursor implements AutoCloseable {
+	private final int HEADER_SIZE = MessageCodec.HEADER_SIZE;
+	private final int INDEX_RECORD_SIZE = MessageArchive.INDEX_RECORD_SIZE;
+	private final int TIME_INDEX_BLOCK_SIZE = MessageArchive.TIME_INDEX_BLOCK_SIZE;
+
+	private final long from;
+	private final long to;
+	private final List<Segment> segments;
+	private int segmentIndex;
+	private int record;
+
+	private RandomAccessFile indexFile;
+	private RandomAccessFile dataFile;
+	private long dataFileLength;
+	private int records;
+	private long[] blocks;
+	private final byte[] index;
+	private final ByteBuffer indexBuffer;
+	private int loadedBlock;
+
+	private Message nextMessage;
+	private long tokenSegment;
+	private int tokenRecord;
+
+	/**
+	 * archive segment to be read by cursor
+	 *
+	 */
+	static class Segment {
+		private final long timestamp;
+		private final String baseName;
+		private final int records;
+		private final long[] blocks;
+
+		/**
+		 * @param timestamp - timestamp of the segment
+		 * @param baseName - path of segment files without extension
+		 * @param records - number of index records to read, -1 to read whole index file
+		 * @param blocks - time index of segment, null to read it from time index file
+		 */
+		Segment(long timestamp, String baseName, int records, long[] blocks) {
+			this.timestamp = timestamp;
+			this.baseName = baseName;
+			this.records = records;
+			this.blocks = blocks;
+		}
+	}
+
+	/**
+	 * @param from - beginning of time frame in milliseconds
+	 * @param to - end of time frame in milliseconds
+	 * @param segments - list of {@link Segment} to be read, in order
+	 * @param record - index record of first {@link Segment} to start from
+	 */
+	ArchiveCursor(long from, long to, List<Segment> segments, int record) {
+		this.from = from;
+		this.to = to;
+		this.segments = segments;
+		this.record = record;
+		this.index = new byte[TIME_INDEX_BLOCK_SIZE * INDEX_RECORD_SIZE];
+		this.indexBuffer = ByteBuffer.wrap(index);
+		this.tokenSegment = segments.isEmpty() ? from : segments.get(0).timestamp;
+		this.tokenRecord = record;
+	}
+
+	/**
+	 * returns true if there are more {@link Message} within the time frame
+	 *
+	 * @return boolean
+	 */
+	public boolean hasNext() {
+		if (nextMessage == null)
+			nextMessage = advance();
+		return nextMessage != null;
+	}
+
+	/**
+	 * returns next {@link Message} within the time frame
+	 *
+	 * @return {@link Message}
+	 * @throws NoSuchElementException if there are no more {@link Message}
+	 */
+	public Message next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		Message result = nextMessage;
+		nextMessage = null;
+		return result;
+	}
+
+	/**
+	 * returns a token to resume the query right after the last {@link Message}
+	 * returned by {@link #next()}
+	 *
+	 * @return token
+	 */
+	public String getToken() {
+		return from + ":" + to + ":" + tokenSegment + ":" + tokenRecord;
+	}
+
+	/**
+	 * parses a token returned by {@link #getToken()}
+	 *
+	 * @param token - token
+	 * @return from, to, segment timestamp and index record
+	 * @throws IllegalArgumentException if token is malformed
+	 */
+	static long[] parseToken(String token) {
+		String[] parts = token == null ? new String[0] : token.split(":");
+		if (parts.length != 4)
+			throw new IllegalArgumentException("invalid token");
+		try {
+			long[] result = new long[4];
+			for (int i = 0; i < 4; i++)
+				result[i] = Long.parseLong(parts[i]);
+			if (result[3] < 0 || result[3] > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("invalid token");
+			return result;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("invalid token");
+		}
+	}
+
+	/**
+	 * reads index records until a {@link Message} within the time frame is found
+	 *
+	 * @return {@link Message} or null if there is no more
+	 */
+	private Message advance() {
+		while (segmentIndex < segments.size()) {
+			Segment segment = segments.get(segmentIndex);
+			try {
+				if (indexFile == null && !openSegment(segment)) {
+					nextSegment();
+					continue;
+				}
+				while (record < records) {
+					int block = record / TIME_INDEX_BLOCK_SIZE;
+					if (blocks != null && block * 2 < blocks.length
+							&& (blocks[block * 2 + 1] < from || blocks[block * 2] > to)) {
+						record = (block + 1) * TIME_INDEX_BLOCK_SIZE;
+						continue;
+					}
+					if (loadedBlock != block) {
+						int first = block * TIME_INDEX_BLOCK_SIZE;
+						int count = Math.min(TIME_INDEX_BLOCK_SIZE, records - first);
+						indexFile.seek((long) first * INDEX_RECORD_SIZE);
+						indexFile.readFully(index, 0, count * INDEX_RECORD_SIZE);
+						loadedBlock = block;
+					}
+
+					int header = (record % TIME_INDEX_BLOCK_SIZE) * INDEX_RECORD_SIZE;
+					record++;
+					short version = indexBuffer.getShort(header);
+					// end of pre-allocated space of an open file
+					if (version == 0) {
+						record = records;
+						break;
+					}
+					if (version != MessageCodec.VERSION)
+						throw new Exception("invalid index file format");
+					long dataPos = indexBuffer.getLong(header + HEADER_SIZE);
+					int dataSize = MessageCodec.getDataSize(indexBuffer, header);
+					if (dataPos + dataSize > dataFileLength || dataSize > dataFileLength)
+						throw new Exception("invalid data file format");
+
+					int timestampSize = MessageCodec.getFieldSize(indexBuffer, header, MessageCodec.TIMESTAMP);
+					int timestampOffset = MessageCodec.getFieldOffset(indexBuffer, header, MessageCodec.TIMESTAMP);
+					byte[] bytes = new byte[HEADER_SIZE + dataSize];
+					System.arraycopy(index, header, bytes, 0, HEADER_SIZE);
+					dataFile.seek(dataPos);
+					dataFile.readFully(bytes, HEADER_SIZE, dataSize);
+					long timestamp = MessageCodec.getNumber(ByteBuffer.wrap(bytes), HEADER_SIZE + timestampOffset, timestampSize);
+					if (timestamp < from || timestamp > to)
+						continue;
+
+					tokenSegment = segment.timestamp;
+					tokenRecord = record;
+					return new Message(bytes);
+				}
+			} catch (Exception e) {
+				LoggingService.logWarning("Message Archive", e.getMessage());
+			}
+			nextSegment();
+		}
+		return null;
+	}
+
+	/**
+	 * opens index and data files of a {@link Segment}
+	 *
+	 * @param segment - {@link Segment} to be opened
+	 * @return false if segment files do not exist
+	 * @throws Exception
+	 */
+	private boolean openSegment(Segment segment) throws Exception {
+		File file = new File(segment.baseName + ".idx");
+		if (!file.exists())
+			return false;
+
+		blocks = segment.blocks;
+		File timeIndex = new File(segment.baseName + ".tidx");
+		if (blocks == null && timeIndex.exists()) {
+			try (RandomAccessFile timeIndexFile = new RandomAccessFile(timeIndex, "r")) {
+				blocks = MessageArchive.readTimeIndex(timeIndexFile);
+			} catch (Exception e) {
+				blocks = null;
+			}
+		}
+
+		indexFile = new RandomAccessFile(file, "r");
+		dataFile = new RandomAccessFile(new File(segment.baseName + ".iomsg"), "r");
+		dataFileLength = dataFile.length();
+		// segments archived before pre-allocation may hold more than maximum records,
+		// reading stops at first unused record of a pre-allocated index
+		records = segment.records >= 0 ? segment.records
+				: (int) Math.min(indexFile.length() / INDEX_RECORD_SIZE, Integer.MAX_VALUE);
+		loadedBlock = -1;
+		return true;
+	}
+
+	private void nextSegment() {
+		closeSegment();
+		segmentIndex++;
+		record = 0;
+	}
+
+	private void closeSegment() {
+		try {
+			if (indexFile != null)
+				indexFile.close();
+			if (dataFile != null)
+				dataFile.close();
+		} catch (Exception e) {}
+		indexFile = null;
+		dataFile = null;
+	}
+
+	/**
+	 * closes open files of the cursor
+	 *
+	 */
+	@Override
+	public void close() {
+		closeSegment();
+		segmentIndex = segments.size();
+		nextMessage = null;
+	}
+}
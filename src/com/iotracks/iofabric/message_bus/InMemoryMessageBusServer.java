@@ -0,0 +1,326 @@
+package com.iotracks.iofabric.message_bus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.iotracks.iofabric.element.Element;
+import com.iotracks.iofabric.status_reporter.StatusReporter;
+import com.iotracks.iofabric.utils.configuration.Configuration;
+import com.iotracks.iofabric.utils.logging.LoggingService;
+
+/**
+ * in-process message bus
+ * each receiver {@link Element} has a {@link MessageRingBuffer}
+ * publishers write to it directly and real-time messages are delivered
+ * by the publishing thread, so no broker thread is involved
+ *
+ * HornetQ server is still used for command-line communications
+ *
+ * @author saeid
+ *
+ */
+public class InMemoryMessageBusServer extends MessageBusTransport {
+
+	private final String MODULE_NAME = "In-Memory Message Bus";
+	private final int QUEUE_CAPACITY = 16 * 1024;
+
+	private final MessageBusServer commandlineServer = new MessageBusServer();
+	private final Map<String, ReceiverQueue> queues = new ConcurrentHashMap<>();
+	private final Set<String> producers = ConcurrentHashMap.newKeySet();
+	private volatile long memoryLimit;
+	// memory used by messages of all queues, memory limit applies to it
+	private final AtomicLong totalBytes = new AtomicLong();
+
+	/**
+	 * queue of a receiver {@link Element}
+	 * one thread at a time, either a publisher delivering real-time messages
+	 * or the receiver polling, can take messages out of the queue
+	 *
+	 */
+	private class ReceiverQueue {
+		private final String name;
+		private final MessageRingBuffer buffer = new MessageRingBuffer(QUEUE_CAPACITY);
+		private final AtomicLong bytes = new AtomicLong();
+		private final AtomicBoolean draining = new AtomicBoolean();
+		private volatile MessageListener listener;
+		private volatile boolean closed;
+		private volatile boolean removed;
+		private volatile boolean dropping;
+
+		private ReceiverQueue(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * adds a message to queue and delivers it if real-time receiving is enabled
+		 * message is dropped if queue is full or memory limit of all queues is reached
+		 *
+		 * @param message - encoded {@link Message}
+		 */
+		private void offer(byte[] message) {
+			if (add(message))
+				drain();
+		}
+
+		private boolean add(byte[] message) {
+			if (removed)
+				return false;
+			if (totalBytes.addAndGet(message.length) > memoryLimit) {
+				totalBytes.addAndGet(-message.length);
+				dropped();
+				return false;
+			}
+			bytes.addAndGet(message.length);
+			if (!buffer.offer(message)) {
+				bytes.addAndGet(-message.length);
+				totalBytes.addAndGet(-message.length);
+				dropped();
+				return false;
+			}
+			if (dropping)
+				dropping = false;
+			// queue removed while adding, its memory is given back
+			if (removed)
+				clear();
+			return true;
+		}
+
+		/**
+		 * counts a dropped message, warning is logged once until a message is accepted again
+		 *
+		 */
+		private void dropped() {
+			StatusReporter.getMessageBusStatus().increaseDroppedMessagesPerElement(name, 1);
+			if (!dropping) {
+				dropping = true;
+				LoggingService.logWarning(MODULE_NAME, "queue of " + name + " is full, dropping messages");
+			}
+		}
+
+		private byte[] poll() {
+			byte[] message = buffer.poll();
+			if (message != null) {
+				bytes.addAndGet(-message.length);
+				totalBytes.addAndGet(-message.length);
+			}
+			return message;
+		}
+
+		/**
+		 * removes all messages, waits for a thread taking messages to finish
+		 *
+		 */
+		private void clear() {
+			while (!draining.compareAndSet(false, true))
+				Thread.yield();
+			try {
+				while (poll() != null);
+			} finally {
+				draining.set(false);
+			}
+		}
+
+		private List<byte[]> receive(int max, long maxBytes) {
+			List<byte[]> result = new ArrayList<>();
+			if (closed || !draining.compareAndSet(false, true))
+				return result;
+			try {
+				long size = 0;
+				while ((max <= 0 || result.size() < max) && (maxBytes <= 0 || size < maxBytes)) {
+					byte[] message = poll();
+					if (message == null)
+						break;
+					result.add(message);
+					size += message.length;
+				}
+				return result;
+			} finally {
+				draining.set(false);
+			}
+		}
+
+		/**
+		 * delivers waiting messages to {@link MessageListener}
+		 * checks the queue again after releasing it, so a message published
+		 * while another thread was draining is not left behind
+		 *
+		 */
+		private void drain() {
+			while (listener != null && buffer.hasNext() && draining.compareAndSet(false, true)) {
+				try {
+					MessageListener current;
+					byte[] message;
+					while ((current = listener) != null && (message = poll()) != null) {
+						try {
+							current.onMessage(message);
+						} catch (Exception e) {
+							LoggingService.logWarning(MODULE_NAME, "unable to deliver message --> " + e.getMessage());
+						}
+					}
+				} finally {
+					draining.set(false);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected boolean isServerActive() {
+		return commandlineServer.isServerActive();
+	}
+
+	@Override
+	protected boolean isProducerClosed(String name) {
+		return !producers.contains(name);
+	}
+
+	@Override
+	protected boolean isConsumerClosed(String name) {
+		ReceiverQueue queue = queues.get(name);
+		return queue == null || queue.closed;
+	}
+
+	/**
+	 * starts HornetQ server for command-line communications
+	 *
+	 * @throws Exception
+	 */
+	@Override
+	protected void startServer() throws Exception {
+		LoggingService.logInfo(MODULE_NAME, "starting...");
+		memoryLimit = (long) (Configuration.getMemoryLimit() * 1_000_000);
+		commandlineServer.startServer();
+	}
+
+	@Override
+	protected void initialize() throws Exception {
+		commandlineServer.initialize();
+	}
+
+	/**
+	 * drops all queues and stops HornetQ server
+	 *
+	 * @throws Exception
+	 */
+	@Override
+	protected void stopServer() throws Exception {
+		LoggingService.logInfo(MODULE_NAME, "stopping...");
+		queues.values().forEach(queue -> {
+			queue.listener = null;
+			queue.closed = true;
+			queue.removed = true;
+		});
+		queues.clear();
+		totalBytes.set(0);
+		producers.clear();
+		commandlineServer.stopServer();
+		LoggingService.logInfo(MODULE_NAME, "stopped");
+	}
+
+	@Override
+	public void setMemoryLimit() {
+		memoryLimit = (long) (Configuration.getMemoryLimit() * 1_000_000);
+	}
+
+	@Override
+	protected void createProducer(String name) throws Exception {
+		producers.add(name);
+	}
+
+	@Override
+	protected void removeProducer(String name) {
+		producers.remove(name);
+	}
+
+	/**
+	 * creates queue of a receiver {@link Element}
+	 * queue of a closed consumer is reopened with its messages
+	 *
+	 * @param name - ID of {@link Element}
+	 * @throws Exception
+	 */
+	@Override
+	protected void createCosumer(String name) throws Exception {
+		queues.computeIfAbsent(name, ReceiverQueue::new).closed = false;
+	}
+
+	@Override
+	protected void closeConsumer(String name) {
+		ReceiverQueue queue = queues.get(name);
+		if (queue == null)
+			return;
+		queue.listener = null;
+		queue.closed = true;
+	}
+
+	/**
+	 * removes queue of a receiver {@link Element} and gives back memory of its messages
+	 *
+	 */
+	@Override
+	protected void removeConsumer(String name) {
+		closeConsumer(name);
+		ReceiverQueue queue = queues.remove(name);
+		if (queue == null)
+			return;
+		queue.removed = true;
+		queue.clear();
+	}
+
+	@Override
+	protected void send(String publisher, List<String> receivers, byte[] message) throws Exception {
+		for (String receiver : receivers) {
+			ReceiverQueue queue = queues.get(receiver);
+			if (queue != null)
+				queue.offer(message);
+		}
+	}
+
+	/**
+	 * adds all messages to queue of each receiver and then delivers them in one go
+	 *
+	 */
+	@Override
+	protected void send(String publisher, List<String> receivers, List<byte[]> messages) throws Exception {
+		for (String receiver : receivers) {
+			ReceiverQueue queue = queues.get(receiver);
+			if (queue == null)
+				continue;
+			for (byte[] message : messages)
+				queue.add(message);
+			queue.drain();
+		}
+	}
+
+	@Override
+	protected List<byte[]> receive(String receiver, int max, long maxBytes) throws Exception {
+		ReceiverQueue queue = queues.get(receiver);
+		return queue == null ? new ArrayList<>() : queue.receive(max, maxBytes);
+	}
+
+	@Override
+	protected void setListener(String receiver, MessageListener listener) throws Exception {
+		ReceiverQueue queue = queues.get(receiver);
+		if (queue == null || queue.closed)
+			return;
+		queue.listener = listener;
+		queue.drain();
+	}
+
+	@Override
+	protected long getQueueDepth(String receiver) {
+		ReceiverQueue queue = queues.get(receiver);
+		return queue == null ? -1 : queue.buffer.size();
+	}
+
+	@Override
+	protected long getQueueBytes(String receiver) {
+		ReceiverQueue queue = queues.get(receiver);
+		return queue == null ? -1 : queue.bytes.get();
+	}
+}
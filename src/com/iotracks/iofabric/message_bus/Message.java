@@ -1,20 +1,24 @@
 package com.iotracks.iofabric.message_bus;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Base64;
 import javax.json.Json;
 import javax.json.JsonObject;
 
-import com.iotracks.iofabric.utils.BytesUtil;
-
 /**
  * represents IOMessage
  * 
+ * a {@link Message} created from raw bytes keeps them and decodes each field
+ * the first time its getter is called. raw bytes are dropped as soon as a field
+ * is set, otherwise {@link #getEncoded()} returns them unchanged
+ * 
  * @author saeid
  *
  */
 public class Message {
-	private final short VERSION = 4; 
+	private final short VERSION = MessageCodec.VERSION; 
+	private static final int ALL_FIELDS = (1 << MessageCodec.FIELDS_COUNT) - 1;
 
 	private String id;
 	private String tag;
@@ -37,6 +41,9 @@ public class Message {
 	private byte[] contextData;
 	private byte[] contentData;
 
+	private ByteBuffer raw;
+	private int decodedFields;
+
 	public Message() {
 		version = VERSION;
 		id = null;
@@ -113,527 +120,318 @@ public class Message {
 
 	public Message(byte[] rawBytes) {
 		super();
-
-		version = BytesUtil.bytesToShort(BytesUtil.copyOfRange(rawBytes, 0, 2));
+		ByteBuffer buffer = ByteBuffer.wrap(rawBytes);
+		version = buffer.getShort(0);
 		if (version != VERSION) {
 			// TODO: incompatible version
+			decodedFields = ALL_FIELDS;
 			return;
 		}
-
-		int pos = 33;
-
-		int size = rawBytes[2];
-		if (size > 0) {
-			id = BytesUtil.bytesToString(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToShort(BytesUtil.copyOfRange(rawBytes, 3, 5));
-		if (size > 0) {
-			tag = BytesUtil.bytesToString(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = rawBytes[5];
-		if (size > 0) {
-			messageGroupId = BytesUtil.bytesToString(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = rawBytes[6];
-		if (size > 0) {
-			sequenceNumber = BytesUtil.bytesToInteger(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = rawBytes[7];
-		if (size > 0) {
-			sequenceTotal = BytesUtil.bytesToInteger(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = rawBytes[8];
-		if (size > 0) {
-			priority = rawBytes[pos];
-			pos += size;
-		}
-
-		size = rawBytes[9];
-		if (size > 0) {
-			timestamp = BytesUtil.bytesToLong(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = rawBytes[10];
-		if (size > 0) {
-			publisher = BytesUtil.bytesToString(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToShort(BytesUtil.copyOfRange(rawBytes, 11, 13));
-		if (size > 0) {
-			authIdentifier = BytesUtil.bytesToString(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToShort(BytesUtil.copyOfRange(rawBytes, 13, 15));
-		if (size > 0) {
-			authGroup = BytesUtil.bytesToString(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = rawBytes[15];
-		if (size > 0) {
-			chainPosition = BytesUtil.bytesToLong(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToShort(BytesUtil.copyOfRange(rawBytes, 16, 18));
-		if (size > 0) {
-			hash = BytesUtil.bytesToString(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToShort(BytesUtil.copyOfRange(rawBytes, 18, 20));
-		if (size > 0) {
-			previousHash = BytesUtil.bytesToString(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToShort(BytesUtil.copyOfRange(rawBytes, 20, 22));
-		if (size > 0) {
-			nonce = BytesUtil.bytesToString(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = rawBytes[22];
-		if (size > 0) {
-			difficultyTarget = BytesUtil.bytesToInteger(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = rawBytes[23];
-		if (size > 0) {
-			infoType = BytesUtil.bytesToString(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = rawBytes[24];
-		if (size > 0) {
-			infoFormat = BytesUtil.bytesToString(BytesUtil.copyOfRange(rawBytes, pos, pos + size));
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToInteger(BytesUtil.copyOfRange(rawBytes, 25, 29));
-		if (size > 0) {
-			contextData = BytesUtil.copyOfRange(rawBytes, pos, pos + size);
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToInteger(BytesUtil.copyOfRange(rawBytes, 29, 33));
-		if (size > 0) {
-			contentData = BytesUtil.copyOfRange(rawBytes, pos, pos + size);
-		}
+		int size = MessageCodec.HEADER_SIZE + MessageCodec.getDataSize(buffer, 0);
+		if (size > rawBytes.length)
+			throw new IllegalArgumentException("incomplete message");
+		raw = size == rawBytes.length ? buffer : ByteBuffer.wrap(Arrays.copyOf(rawBytes, size));
 	}
 
 	public Message(byte[] header, byte[] data) {
-		super();
-
-		version = BytesUtil.bytesToShort(BytesUtil.copyOfRange(header, 0, 2));
-		if (version != VERSION) {
-			// TODO: incompatible version
-			return;
-		}
-
-		int pos = 0;
-
-		int size = header[2];
-		if (size > 0) {
-			id = BytesUtil.bytesToString(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToShort(BytesUtil.copyOfRange(header, 3, 5));
-		if (size > 0) {
-			tag = BytesUtil.bytesToString(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
-
-		size = header[5];
-		if (size > 0) {
-			messageGroupId = BytesUtil.bytesToString(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
-
-		size = header[6];
-		if (size > 0) {
-			sequenceNumber = BytesUtil.bytesToInteger(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
-
-		size = header[7];
-		if (size > 0) {
-			sequenceTotal = BytesUtil.bytesToInteger(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
-
-		size = header[8];
-		if (size > 0) {
-			priority = data[pos];
-			pos += size;
-		}
-
-		size = header[9];
-		if (size > 0) {
-			timestamp = BytesUtil.bytesToLong(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
-
-		size = header[10];
-		if (size > 0) {
-			publisher = BytesUtil.bytesToString(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToShort(BytesUtil.copyOfRange(header, 11, 13));
-		if (size > 0) {
-			authIdentifier = BytesUtil.bytesToString(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToShort(BytesUtil.copyOfRange(header, 13, 15));
-		if (size > 0) {
-			authGroup = BytesUtil.bytesToString(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
-
-		size = header[15];
-		if (size > 0) {
-			chainPosition = BytesUtil.bytesToLong(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToShort(BytesUtil.copyOfRange(header, 16, 18));
-		if (size > 0) {
-			hash = BytesUtil.bytesToString(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToShort(BytesUtil.copyOfRange(header, 18, 20));
-		if (size > 0) {
-			previousHash = BytesUtil.bytesToString(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
-
-		size = BytesUtil.bytesToShort(BytesUtil.copyOfRange(header, 20, 22));
-		if (size > 0) {
-			nonce = BytesUtil.bytesToString(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
-
-		size = header[22];
-		if (size > 0) {
-			difficultyTarget = BytesUtil.bytesToInteger(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
+		this(concat(header, data));
+	}
 
-		size = header[23];
-		if (size > 0) {
-			infoType = BytesUtil.bytesToString(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
+	private static byte[] concat(byte[] header, byte[] data) {
+		byte[] result = Arrays.copyOf(header, header.length + data.length);
+		System.arraycopy(data, 0, result, header.length, data.length);
+		return result;
+	}
 
-		size = header[24];
-		if (size > 0) {
-			infoFormat = BytesUtil.bytesToString(BytesUtil.copyOfRange(data, pos, pos + size));
-			pos += size;
-		}
+	/**
+	 * decodes a field from raw bytes, if not decoded yet
+	 * 
+	 * @param field - field identifier
+	 */
+	private void load(int field) {
+		if (raw == null || (decodedFields & (1 << field)) != 0)
+			return;
 
-		size = BytesUtil.bytesToInteger(BytesUtil.copyOfRange(header, 25, 29));
-		if (size > 0) {
-			contextData = BytesUtil.copyOfRange(data, pos, pos + size);
-			pos += size;
-		}
+		int size = MessageCodec.getFieldSize(raw, 0, field);
+		int index = MessageCodec.HEADER_SIZE + MessageCodec.getFieldOffset(raw, 0, field);
+		switch (field) {
+		case MessageCodec.ID:
+			id = MessageCodec.getString(raw, index, size);
+			break;
+		case MessageCodec.TAG:
+			tag = MessageCodec.getString(raw, index, size);
+			break;
+		case MessageCodec.GROUP_ID:
+			messageGroupId = MessageCodec.getString(raw, index, size);
+			break;
+		case MessageCodec.SEQUENCE_NUMBER:
+			sequenceNumber = (int) MessageCodec.getNumber(raw, index, size);
+			break;
+		case MessageCodec.SEQUENCE_TOTAL:
+			sequenceTotal = (int) MessageCodec.getNumber(raw, index, size);
+			break;
+		case MessageCodec.PRIORITY:
+			priority = size > 0 ? raw.get(index) : 0;
+			break;
+		case MessageCodec.TIMESTAMP:
+			timestamp = MessageCodec.getNumber(raw, index, size);
+			break;
+		case MessageCodec.PUBLISHER:
+			publisher = MessageCodec.getString(raw, index, size);
+			break;
+		case MessageCodec.AUTH_IDENTIFIER:
+			authIdentifier = MessageCodec.getString(raw, index, size);
+			break;
+		case MessageCodec.AUTH_GROUP:
+			authGroup = MessageCodec.getString(raw, index, size);
+			break;
+		case MessageCodec.CHAIN_POSITION:
+			chainPosition = MessageCodec.getNumber(raw, index, size);
+			break;
+		case MessageCodec.HASH:
+			hash = MessageCodec.getString(raw, index, size);
+			break;
+		case MessageCodec.PREVIOUS_HASH:
+			previousHash = MessageCodec.getString(raw, index, size);
+			break;
+		case MessageCodec.NONCE:
+			nonce = MessageCodec.getString(raw, index, size);
+			break;
+		case MessageCodec.DIFFICULTY_TARGET:
+			difficultyTarget = (int) MessageCodec.getNumber(raw, index, size);
+			break;
+		case MessageCodec.INFO_TYPE:
+			infoType = MessageCodec.getString(raw, index, size);
+			break;
+		case MessageCodec.INFO_FORMAT:
+			infoFormat = MessageCodec.getString(raw, index, size);
+			break;
+		case MessageCodec.CONTEXT_DATA:
+			contextData = MessageCodec.getBytes(raw, index, size);
+			break;
+		case MessageCodec.CONTENT_DATA:
+			contentData = MessageCodec.getBytes(raw, index, size);
+			break;
+		}
+		decodedFields |= 1 << field;
+	}
+
+	/**
+	 * decodes all remaining fields and drops raw bytes
+	 * called before any field is modified
+	 * 
+	 */
+	private void materialize() {
+		if (raw == null)
+			return;
+		for (int field = 0; field < MessageCodec.FIELDS_COUNT; field++)
+			load(field);
+		raw = null;
+	}
 
-		size = BytesUtil.bytesToInteger(BytesUtil.copyOfRange(header, 29, 33));
-		if (size > 0) {
-			contentData = BytesUtil.copyOfRange(data, pos, pos + size);
-		}
+	/**
+	 * returns raw bytes of an unmodified {@link Message}
+	 * 
+	 * @return raw bytes or null if {@link Message} has been modified
+	 */
+	byte[] getRawBytes() {
+		return raw == null ? null : raw.array();
 	}
 
 	public String getId() {
+		load(MessageCodec.ID);
 		return id;
 	}
 	public void setId(String id) {
+		materialize();
 		this.id = id;
 	}
 	public String getTag() {
+		load(MessageCodec.TAG);
 		return tag;
 	}
 	public void setTag(String tag) {
+		materialize();
 		this.tag = tag;
 	}
 	public String getMessageGroupId() {
+		load(MessageCodec.GROUP_ID);
 		return messageGroupId;
 	}
 	public void setMessageGroupId(String messageGroupId) {
+		materialize();
 		this.messageGroupId = messageGroupId;
 	}
 	public int getSequenceNumber() {
+		load(MessageCodec.SEQUENCE_NUMBER);
 		return sequenceNumber;
 	}
 	public void setSequenceNumber(int sequenceNumber) {
+		materialize();
 		this.sequenceNumber = sequenceNumber;
 	}
 	public int getSequenceTotal() {
+		load(MessageCodec.SEQUENCE_TOTAL);
 		return sequenceTotal;
 	}
 	public void setSequenceTotal(int sequenceTotal) {
+		materialize();
 		this.sequenceTotal = sequenceTotal;
 	}
 	public byte getPriority() {
+		load(MessageCodec.PRIORITY);
 		return priority;
 	}
 	public void setPriority(byte priority) {
+		materialize();
 		this.priority = priority;
 	}
 	public long getTimestamp() {
+		load(MessageCodec.TIMESTAMP);
 		return timestamp;
 	}
 	public void setTimestamp(long timestamp) {
+		materialize();
 		this.timestamp = timestamp;
 	}
 	public String getPublisher() {
+		load(MessageCodec.PUBLISHER);
 		return publisher;
 	}
 	public void setPublisher(String publisher) {
+		materialize();
 		this.publisher = publisher;
 	}
 	public String getAuthIdentifier() {
+		load(MessageCodec.AUTH_IDENTIFIER);
 		return authIdentifier;
 	}
 	public void setAuthIdentifier(String authIdentifier) {
+		materialize();
 		this.authIdentifier = authIdentifier;
 	}
 	public String getAuthGroup() {
+		load(MessageCodec.AUTH_GROUP);
 		return authGroup;
 	}
 	public void setAuthGroup(String authGroup) {
+		materialize();
 		this.authGroup = authGroup;
 	}
 	public short getVersion() {
 		return version;
 	}
 	public long getChainPosition() {
+		load(MessageCodec.CHAIN_POSITION);
 		return chainPosition;
 	}
 	public void setChainPosition(long chainPosition) {
+		materialize();
 		this.chainPosition = chainPosition;
 	}
 	public String getHash() {
+		load(MessageCodec.HASH);
 		return hash;
 	}
 	public void setHash(String hash) {
+		materialize();
 		this.hash = hash;
 	}
 	public String getPreviousHash() {
+		load(MessageCodec.PREVIOUS_HASH);
 		return previousHash;
 	}
 	public void setPreviousHash(String previousHash) {
+		materialize();
 		this.previousHash = previousHash;
 	}
 	public String getNonce() {
+		load(MessageCodec.NONCE);
 		return nonce;
 	}
 	public void setNonce(String nonce) {
+		materialize();
 		this.nonce = nonce;
 	}
 	public int getDifficultyTarget() {
+		load(MessageCodec.DIFFICULTY_TARGET);
 		return difficultyTarget;
 	}
 	public void setDifficultyTarget(int difficultyTarget) {
+		materialize();
 		this.difficultyTarget = difficultyTarget;
 	}
 	public String getInfoType() {
+		load(MessageCodec.INFO_TYPE);
 		return infoType;
 	}
 	public void setInfoType(String infoType) {
+		materialize();
 		this.infoType = infoType;
 	}
 	public String getInfoFormat() {
+		load(MessageCodec.INFO_FORMAT);
 		return infoFormat;
 	}
 	public void setInfoFormat(String infoFormat) {
+		materialize();
 		this.infoFormat = infoFormat;
 	}
 	public byte[] getContextData() {
+		load(MessageCodec.CONTEXT_DATA);
 		return contextData;
 	}
 	public void setContextData(byte[] contextData) {
+		materialize();
 		this.contextData = contextData;
 	}
 	public byte[] getContentData() {
+		load(MessageCodec.CONTENT_DATA);
 		return contentData;
 	}
 	public void setContentData(byte[] contentData) {
+		materialize();
 		this.contentData = contentData;
 	}
 
-	private int getLength(String str) {
-		if (str == null)
-			return 0;
-		else
-			return str.length();
+	/**
+	 * returns exact size of the {@link Message} in bytes
+	 * 
+	 * @return size
+	 */
+	public int getSize() {
+		if (raw != null)
+			return raw.capacity();
+		return MessageCodec.getSize(this);
 	}
 
+	/**
+	 * returns a copy of IOMessage v4 bytes of the {@link Message}
+	 * 
+	 * @return bytes
+	 */
 	public byte[] getBytes() {
-		ByteArrayOutputStream headerBaos = new ByteArrayOutputStream(); 
-		ByteArrayOutputStream dataBaos = new ByteArrayOutputStream(); 
+		byte[] encoded = getEncoded();
+		return Arrays.copyOf(encoded, encoded.length);
+	}
+
+	/**
+	 * returns IOMessage v4 bytes of the {@link Message} without copying
+	 * encoded bytes are kept until a field is modified and fields not decoded yet
+	 * are read from them, so the returned array must not be changed
+	 * 
+	 * @return bytes
+	 */
+	public byte[] getEncoded() {
+		if (raw != null)
+			return raw.array();
 		try {
-			//version
-			headerBaos.write(BytesUtil.shortToBytes((short) VERSION));
-
-			// id
-			int len = getLength(getId());
-			headerBaos.write((byte) (len & 0xff));
-			if (len > 0)
-				dataBaos.write(BytesUtil.stringToBytes(getId()));
-
-			// tag
-			len = getLength(getTag());
-			headerBaos.write(BytesUtil.shortToBytes((short) (len & 0xffff)));
-			if (len > 0)
-				dataBaos.write(BytesUtil.stringToBytes(getTag()));
-
-			//groupid
-			len = getLength(getMessageGroupId());
-			headerBaos.write((byte) (len & 0xff));
-			if (len > 0)
-				dataBaos.write(BytesUtil.stringToBytes(getMessageGroupId()));
-
-			// seq no
-			if (getSequenceNumber() == 0)
-				headerBaos.write(0);
-			else {
-				dataBaos.write(BytesUtil.integerToBytes(getSequenceNumber()));
-				headerBaos.write(4);
-			}
-
-			// seq total
-			if (getSequenceTotal() == 0)
-				headerBaos.write(0);
-			else {
-				dataBaos.write(BytesUtil.integerToBytes(getSequenceTotal()));
-				headerBaos.write(4);
-			}
-
-
-			// priority
-			if (getPriority() == 0)
-				headerBaos.write(0);
-			else {
-				headerBaos.write(1);
-				dataBaos.write(getPriority());
-			}
-
-			//timestamp
-			if (getTimestamp() == 0)
-				headerBaos.write(0);
-			else {
-				headerBaos.write(8);
-				dataBaos.write(BytesUtil.longToBytes(getTimestamp()));
-			}
-
-			// publisher
-			len = getLength(getPublisher());
-			headerBaos.write((byte) (len & 0xff));
-			if (len > 0)
-				dataBaos.write(BytesUtil.stringToBytes(getPublisher()));
-
-			// authIdentifier
-			len = getLength(getAuthIdentifier());
-			headerBaos.write(BytesUtil.shortToBytes((short) (len & 0xffff)));
-			if (len > 0)
-				dataBaos.write(BytesUtil.stringToBytes(getAuthIdentifier()));
-
-			// authGroup
-			len = getLength(getAuthGroup());
-			headerBaos.write(BytesUtil.shortToBytes((short) (len & 0xffff)));
-			if (len > 0)
-				dataBaos.write(BytesUtil.stringToBytes(getAuthGroup()));
-
-			// chainPosition
-			if (getChainPosition() == 0)
-				headerBaos.write(0);
-			else {
-				headerBaos.write(8);
-				dataBaos.write(BytesUtil.longToBytes(getChainPosition()));
-			}
-
-			// hash
-			len = getLength(getHash());
-			headerBaos.write(BytesUtil.shortToBytes((short) (len & 0xffff)));
-			if (len > 0)
-				dataBaos.write(BytesUtil.stringToBytes(getHash()));
-
-			// previousHash
-			len = getLength(getPreviousHash());
-			headerBaos.write(BytesUtil.shortToBytes((short) (len & 0xffff)));
-			if (len > 0)
-				dataBaos.write(BytesUtil.stringToBytes(getPreviousHash()));
-
-			// nonce
-			len = getLength(getNonce());
-			headerBaos.write(BytesUtil.shortToBytes((short) (len & 0xffff)));
-			if (len > 0) 
-				dataBaos.write(BytesUtil.stringToBytes(getNonce()));
-
-			// difficultyTarget
-			if (getDifficultyTarget() == 0)
-				headerBaos.write(0);
-			else {
-				headerBaos.write(4);
-				dataBaos.write(BytesUtil.integerToBytes(getDifficultyTarget()));
-			}
-
-			// infoType
-			len = getLength(getInfoType());
-			headerBaos.write((byte) (len & 0xff));
-			if (len > 0)
-				dataBaos.write(BytesUtil.stringToBytes(getInfoType()));
-
-			// infoFormat
-			len = getLength(getInfoFormat());
-			headerBaos.write((byte) (len & 0xff));
-			if (len > 0)
-				dataBaos.write(BytesUtil.stringToBytes(getInfoFormat()));
-
-			// contextData
-			if (getContextData() == null)
-				headerBaos.write(BytesUtil.integerToBytes(0));
-			else {
-				headerBaos.write(BytesUtil.integerToBytes(getContextData().length));
-				dataBaos.write(getContextData());
-			}
-
-			// contentData
-			if (getContentData() == null)
-				headerBaos.write(BytesUtil.integerToBytes(0));
-			else {
-				headerBaos.write(BytesUtil.integerToBytes(getContentData().length));
-				dataBaos.write(getContentData());
-			}
-
-			ByteArrayOutputStream result = new ByteArrayOutputStream();
-			headerBaos.writeTo(result);
-			dataBaos.writeTo(result);
-			return result.toByteArray();
+			ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.getSize(this));
+			MessageCodec.encode(this, buffer);
+			raw = buffer;
+			decodedFields = ALL_FIELDS;
+			return buffer.array();
 		} catch (Exception e) {
-		} finally {
-			try {
-				headerBaos.close();
-				dataBaos.close();
-			} catch (Exception e) {}
 		}
 		return new byte[] {};
 	}
@@ -667,37 +465,39 @@ public class Message {
 			infoFormat = result.infoFormat;
 			contextData = result.contextData;
 			contentData = result.contentData;
+			raw = result.raw;
+			decodedFields = result.decodedFields;
 		} catch (Exception e) {	}
 	}
 
 	public JsonObject toJson() {
 		return Json.createObjectBuilder()
-				.add("id", id == null ? "" : id)
-				.add("tag", tag == null ? "" : tag)
-				.add("groupid", messageGroupId == null ? "" : messageGroupId)
-				.add("sequencenumber", sequenceNumber)
-				.add("sequencetotal", sequenceTotal)
-				.add("priority", priority)
-				.add("timestamp", timestamp)
-				.add("publisher", publisher == null ? "" : publisher)
-				.add("authid", authIdentifier == null ? "" : authIdentifier)
-				.add("authgroup", authGroup == null ? "" : authGroup)
+				.add("id", getId() == null ? "" : getId())
+				.add("tag", getTag() == null ? "" : getTag())
+				.add("groupid", getMessageGroupId() == null ? "" : getMessageGroupId())
+				.add("sequencenumber", getSequenceNumber())
+				.add("sequencetotal", getSequenceTotal())
+				.add("priority", getPriority())
+				.add("timestamp", getTimestamp())
+				.add("publisher", getPublisher() == null ? "" : getPublisher())
+				.add("authid", getAuthIdentifier() == null ? "" : getAuthIdentifier())
+				.add("authgroup", getAuthGroup() == null ? "" : getAuthGroup())
 				.add("version", version)
-				.add("chainposition", chainPosition)
-				.add("hash", hash == null ? "" : hash)
-				.add("previoushash", previousHash == null ? "" : previousHash)
-				.add("nonce", nonce == null ? "" : nonce)
-				.add("difficultytarget", difficultyTarget)
-				.add("infotype", infoType == null ? "" : infoType)
-				.add("infoformat", infoFormat == null ? "" : infoFormat)
-				.add("contextdata", contextData == null ? "" : new String(Base64.getEncoder().encode(contextData)))
-				.add("contentdata", contentData == null ? "" : new String(Base64.getEncoder().encode(contentData)))
+				.add("chainposition", getChainPosition())
+				.add("hash", getHash() == null ? "" : getHash())
+				.add("previoushash", getPreviousHash() == null ? "" : getPreviousHash())
+				.add("nonce", getNonce() == null ? "" : getNonce())
+				.add("difficultytarget", getDifficultyTarget())
+				.add("infotype", getInfoType() == null ? "" : getInfoType())
+				.add("infoformat", getInfoFormat() == null ? "" : getInfoFormat())
+				.add("contextdata", getContextData() == null ? "" : new String(Base64.getEncoder().encode(getContextData())))
+				.add("contentdata", getContentData() == null ? "" : new String(Base64.getEncoder().encode(getContentData())))
 				.build();
 	}
 
 	public byte[] encodeBase64() {
 		try {
-			return Base64.getEncoder().encode(this.getBytes());
+			return Base64.getEncoder().encode(this.getEncoded());
 		} catch (Exception e) {
 			return null;
 		}
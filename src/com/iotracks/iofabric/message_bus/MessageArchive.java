@@ -3,242 +3,438 @@ package com.iotracks.iofabric.message_bus;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
+import java.util.TreeMap;
 
 import com.iotracks.iofabric.element.Element;
-import com.iotracks.iofabric.utils.BytesUtil;
-import com.iotracks.iofabric.utils.Constants;
 import com.iotracks.iofabric.utils.configuration.Configuration;
-import com.iotracks.iofabric.utils.logging.LoggingService;
 
 /**
  * archives received {@link Message} from {@link Element}
- * 
+ *
+ * each archive segment consists of an index file (.idx), a data file (.iomsg)
+ * and a time index file (.tidx) holding minimum and maximum timestamp of
+ * every block of 64 index records
+ *
  * @author saeid
  *
  */
 public class MessageArchive {
-	private final byte HEADER_SIZE = 33;
-	private final short MAXIMUM_MESSAGE_PER_FILE = 1000;
+	private final int HEADER_SIZE = MessageCodec.HEADER_SIZE;
+	static final int INDEX_RECORD_SIZE = MessageCodec.HEADER_SIZE + Long.BYTES;
+	static final short MAXIMUM_MESSAGE_PER_FILE = 1000;
 	private final int MAXIMUM_ARCHIVE_SIZE_MB = 1;
+	static final int TIME_INDEX_BLOCK_SIZE = 64;
+	private static final int TIME_INDEX_RECORD_SIZE = 2 * Long.BYTES;
+	private static final int TIME_INDEX_SIZE = ((MAXIMUM_MESSAGE_PER_FILE + TIME_INDEX_BLOCK_SIZE - 1) / TIME_INDEX_BLOCK_SIZE) * TIME_INDEX_RECORD_SIZE;
 
 	private final String name;
 	private String diskDirectory;
 	private String currentFileName;
 	private RandomAccessFile indexFile;
 	private RandomAccessFile dataFile;
-	
+	private RandomAccessFile timeIndexFile;
+	private MappedByteBuffer indexBuffer;
+	private MappedByteBuffer dataBuffer;
+	private MappedByteBuffer timeIndexBuffer;
+	private long indexFileLength;
+	private long dataFileLength;
+	private long timeIndexFileLength;
+	private int unflushedMessages;
+	private long lastFlushTime;
+	private final TreeMap<Long, Segment> segments = new TreeMap<>();
+	private Segment currentSegment;
+
+	/**
+	 * time range of an archive segment
+	 *
+	 */
+	private class Segment {
+		private final String fileName;
+		private long minTimestamp;
+		private long maxTimestamp;
+
+		private Segment(String fileName, long minTimestamp, long maxTimestamp) {
+			this.fileName = fileName;
+			this.minTimestamp = minTimestamp;
+			this.maxTimestamp = maxTimestamp;
+		}
+	}
+
 	public MessageArchive(String name) {
 		this.name = name;
 		init();
 	}
-	
+
 	/**
-	 * sets the file name for {@link Message} to be archived
-	 * 
+	 * loads list of archive segments and sets the file name
+	 * for {@link Message} to be archived
+	 * last segment is reopened only if its index is not full
+	 *
 	 */
 	protected void init() {
 		currentFileName = "";
 		diskDirectory = Configuration.getDiskDirectory() + "messages/archive/";
-		
-		File lastFile = null;
-		long lastFileTimestamp = 0;
+
 		final File workingDirectory = new File(diskDirectory);
 		if (!workingDirectory.exists())
 			workingDirectory.mkdirs();
-		
+
 		FilenameFilter filter = new FilenameFilter() {
 			@Override
 			public boolean accept(File dir, String fileName) {
-				return fileName.substring(0, name.length()).equals(name) && fileName.substring(fileName.indexOf(".")).equals(".idx");
+				return fileName.startsWith(name + "_") && fileName.substring(fileName.indexOf(".")).equals(".idx");
 			}
 		};
-		
+
 		for (File file : workingDirectory.listFiles(filter)) {
 			if (!file.isFile())
 				continue;
 			String filename = file.getName();
-			if (filename.substring(0, name.length()).equals(name)) {
-				String timestampStr = filename.substring(name.length() + 1, filename.indexOf("."));
-				long timestamp = Long.parseLong(timestampStr);
-				if (timestamp > lastFileTimestamp) {
-					lastFileTimestamp = timestamp;
-					lastFile = file; 
-				}
+			try {
+				long timestamp = Long.parseLong(filename.substring(name.length() + 1, filename.indexOf(".")));
+				segments.put(timestamp, loadSegment(filename, timestamp));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+		}
+
+		if (!segments.isEmpty() && !isFull(segments.lastEntry().getValue())) {
+			currentSegment = segments.lastEntry().getValue();
+			currentFileName = diskDirectory + currentSegment.fileName;
+		}
+	}
+
+	/**
+	 * checks if index file of a segment holds maximum number of records
+	 * segments archived before pre-allocation are rolled by data size only,
+	 * so they may hold more records than maximum
+	 *
+	 * @param segment - {@link Segment} to be checked
+	 * @return boolean
+	 */
+	private boolean isFull(Segment segment) {
+		try (RandomAccessFile index = new RandomAccessFile(diskDirectory + segment.fileName, "r")) {
+			long records = index.length() / INDEX_RECORD_SIZE;
+			if (records != MAXIMUM_MESSAGE_PER_FILE)
+				return records > MAXIMUM_MESSAGE_PER_FILE;
+			// pre-allocated index of a segment which was not closed
+			index.seek((records - 1) * INDEX_RECORD_SIZE);
+			return index.readShort() != 0;
+		} catch (Exception e) {
+			return true;
+		}
+	}
+
+	/**
+	 * reads time range of a segment from its time index file
+	 * if there is no time index file, time range starts from timestamp
+	 * of the segment and is unbounded
+	 *
+	 * @param fileName - index file name
+	 * @param timestamp - timestamp of the segment
+	 * @return {@link Segment}
+	 */
+	private Segment loadSegment(String fileName, long timestamp) {
+		Segment segment = new Segment(fileName, timestamp, Long.MAX_VALUE);
+		File file = new File(diskDirectory + getBaseName(fileName) + ".tidx");
+		if (!file.exists())
+			return segment;
+		try (RandomAccessFile timeIndex = new RandomAccessFile(file, "r")) {
+			long[] blocks = readTimeIndex(timeIndex);
+			if (blocks.length == 0)
+				return segment;
+			segment.minTimestamp = Long.MAX_VALUE;
+			segment.maxTimestamp = Long.MIN_VALUE;
+			for (int i = 0; i < blocks.length; i += 2) {
+				segment.minTimestamp = Math.min(segment.minTimestamp, blocks[i]);
+				segment.maxTimestamp = Math.max(segment.maxTimestamp, blocks[i + 1]);
 			}
+		} catch (Exception e) {
+			segment.maxTimestamp = Long.MAX_VALUE;
+		}
+		return segment;
+	}
+
+	/**
+	 * reads minimum and maximum timestamp of each block from time index file
+	 *
+	 * @param timeIndex - time index file
+	 * @return array of minimum and maximum timestamp pairs
+	 * @throws Exception
+	 */
+	static long[] readTimeIndex(RandomAccessFile timeIndex) throws Exception {
+		int length = (int) Math.min(timeIndex.length(), TIME_INDEX_SIZE);
+		byte[] bytes = new byte[length - (length % TIME_INDEX_RECORD_SIZE)];
+		timeIndex.readFully(bytes);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int count = 0;
+		long[] result = new long[bytes.length / Long.BYTES];
+		while (buffer.remaining() >= TIME_INDEX_RECORD_SIZE) {
+			long min = buffer.getLong();
+			long max = buffer.getLong();
+			// unused pre-allocated block
+			if (min == 0 && max == 0)
+				break;
+			result[count++] = min;
+			result[count++] = max;
 		}
-		
-		if (lastFileTimestamp > 0 && lastFile.length() < ((HEADER_SIZE + Long.BYTES) * MAXIMUM_MESSAGE_PER_FILE))
-			currentFileName = lastFile.getPath();
+		long[] blocks = new long[count];
+		System.arraycopy(result, 0, blocks, 0, count);
+		return blocks;
+	}
+
+	private String getBaseName(String fileName) {
+		return fileName.substring(0, fileName.indexOf("."));
 	}
-	
+
 	/**
-	 * opens index and data file
-	 * 
+	 * opens index, data and time index files and maps them into memory
+	 * files are pre-allocated and write positions are recovered from index file
+	 *
 	 * @param timestamp- timestamp of first {@link Message} in the file
+	 * @param dataSize - size of data of first {@link Message} to be archived
 	 * @throws Exception
 	 */
-	private void openFiles(long timestamp) throws Exception {
-		if (currentFileName.equals(""))
+	private void openFiles(long timestamp, int dataSize) throws Exception {
+		if (currentFileName.equals("")) {
+			while (new File(diskDirectory + name + "_" + timestamp + ".idx").exists())
+				timestamp++;
 			currentFileName = diskDirectory + name + "_" + timestamp + ".idx";
+			currentSegment = new Segment(name + "_" + timestamp + ".idx", Long.MAX_VALUE, Long.MIN_VALUE);
+			segments.put(timestamp, currentSegment);
+		}
 		indexFile = new RandomAccessFile(new File(currentFileName), "rw");
-		dataFile = new RandomAccessFile(new File(currentFileName.substring(0, currentFileName.indexOf(".")) + ".iomsg"), "rw");
+		dataFile = new RandomAccessFile(new File(getBaseName(currentFileName) + ".iomsg"), "rw");
+		timeIndexFile = new RandomAccessFile(new File(getBaseName(currentFileName) + ".tidx"), "rw");
+
+		indexFileLength = indexFile.length();
+		dataFileLength = dataFile.length();
+		timeIndexFileLength = timeIndexFile.length();
+
+		long dataFileSize = Math.max(dataFileLength, Math.max(MAXIMUM_ARCHIVE_SIZE_MB * 1_000_000, dataSize));
+		dataBuffer = dataFile.getChannel().map(MapMode.READ_WRITE, 0, dataFileSize);
+		indexBuffer = indexFile.getChannel().map(MapMode.READ_WRITE, 0, Math.max(indexFileLength, INDEX_RECORD_SIZE * MAXIMUM_MESSAGE_PER_FILE));
+		timeIndexBuffer = timeIndexFile.getChannel().map(MapMode.READ_WRITE, 0, Math.max(timeIndexFileLength, TIME_INDEX_SIZE));
+
+		// time index is rebuilt from recovered records, in case it is missing or incomplete
+		int dataPos = 0;
+		while (indexBuffer.position() < INDEX_RECORD_SIZE * MAXIMUM_MESSAGE_PER_FILE) {
+			int index = indexBuffer.position();
+			if (indexBuffer.getShort(index) == 0)
+				break;
+			int recordDataPos = (int) indexBuffer.getLong(index + HEADER_SIZE);
+			int timestampSize = MessageCodec.getFieldSize(indexBuffer, index, MessageCodec.TIMESTAMP);
+			int timestampOffset = MessageCodec.getFieldOffset(indexBuffer, index, MessageCodec.TIMESTAMP);
+			updateTimeIndex(index / INDEX_RECORD_SIZE, MessageCodec.getNumber(dataBuffer, recordDataPos + timestampOffset, timestampSize));
+			dataPos = recordDataPos + MessageCodec.getDataSize(indexBuffer, index);
+			indexBuffer.position(index + INDEX_RECORD_SIZE);
+		}
+		dataBuffer.position(dataPos);
+		unflushedMessages = 0;
+		lastFlushTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * updates time index block of an index record and time range of current segment
+	 *
+	 * @param record - index record number
+	 * @param timestamp - timestamp of the {@link Message}
+	 */
+	private void updateTimeIndex(int record, long timestamp) {
+		int index = (record / TIME_INDEX_BLOCK_SIZE) * TIME_INDEX_RECORD_SIZE;
+		long min = timestamp;
+		long max = timestamp;
+		if (record % TIME_INDEX_BLOCK_SIZE != 0) {
+			min = Math.min(min, timeIndexBuffer.getLong(index));
+			max = Math.max(max, timeIndexBuffer.getLong(index + Long.BYTES));
+		}
+		timeIndexBuffer.putLong(index, min);
+		timeIndexBuffer.putLong(index + Long.BYTES, max);
+		timeIndexBuffer.position(index + TIME_INDEX_RECORD_SIZE);
+
+		currentSegment.minTimestamp = Math.min(currentSegment.minTimestamp, timestamp);
+		currentSegment.maxTimestamp = currentSegment.maxTimestamp == Long.MAX_VALUE ? timestamp : Math.max(currentSegment.maxTimestamp, timestamp);
 	}
-	
+
 	/**
-	 * archives {@link Message} to file. If size of the data file becomes more than
-	 * defined value, creates a new file 
-	 * 
+	 * archives {@link Message} to file. If index or data file becomes full,
+	 * creates a new file
+	 *
 	 * @param message - {@link Message} to be archived
 	 * @param timestamp - timestamp of the {@link Message}
 	 * @throws Exception
 	 */
 	protected void save(byte[] message, long timestamp) throws Exception {
-		if (indexFile == null)
-			openFiles(timestamp);
-		
-		if ((message.length + dataFile.length()) >= (MAXIMUM_ARCHIVE_SIZE_MB * 1_000_000)) {
+		append(message, timestamp);
+		flushIfNeeded();
+	}
+
+	/**
+	 * archives a list of {@link Message}
+	 * flush policy is applied once for the whole list
+	 *
+	 * @param messages - list of {@link Message} to be archived
+	 * @throws Exception
+	 */
+	protected void save(List<Message> messages) throws Exception {
+		for (Message message : messages)
+			append(message.getEncoded(), message.getTimestamp());
+		flushIfNeeded();
+	}
+
+	/**
+	 * writes index and data records of a {@link Message}
+	 *
+	 * @param message - {@link Message} to be archived
+	 * @param timestamp - timestamp of the {@link Message}
+	 * @throws Exception
+	 */
+	private void append(byte[] message, long timestamp) throws Exception {
+		int dataSize = message.length - HEADER_SIZE;
+		if (indexBuffer == null)
+			openFiles(timestamp, dataSize);
+
+		if (indexBuffer.position() >= INDEX_RECORD_SIZE * MAXIMUM_MESSAGE_PER_FILE || dataBuffer.remaining() < dataSize) {
 			close();
-			openFiles(timestamp);
+			openFiles(timestamp, dataSize);
 		}
-		indexFile.seek(indexFile.length());
-		dataFile.seek(dataFile.length());
-		long dataPos = dataFile.getFilePointer();
-		
-		indexFile.write(message, 0, HEADER_SIZE);
-		indexFile.writeLong(dataPos);
-		dataFile.write(message, HEADER_SIZE, message.length - HEADER_SIZE);
+		int index = indexBuffer.position();
+		long dataPos = dataBuffer.position();
+
+		// version is written last, so a partially written record is never read
+		dataBuffer.put(message, HEADER_SIZE, dataSize);
+		indexBuffer.position(index + Short.BYTES);
+		indexBuffer.put(message, Short.BYTES, HEADER_SIZE - Short.BYTES);
+		indexBuffer.putLong(dataPos);
+		indexBuffer.put(index, message[0]);
+		indexBuffer.put(index + 1, message[1]);
+		updateTimeIndex(index / INDEX_RECORD_SIZE, timestamp);
+		unflushedMessages++;
+	}
+
+	/**
+	 * forces archive to disk if flush count or flush interval
+	 * of {@link Configuration} has been reached
+	 *
+	 */
+	private void flushIfNeeded() {
+		int flushCount = Configuration.getMessageArchiveFlushCount();
+		long flushInterval = Configuration.getMessageArchiveFlushInterval();
+		if ((flushCount > 0 && unflushedMessages >= flushCount)
+				|| (flushInterval > 0 && System.currentTimeMillis() - lastFlushTime >= flushInterval))
+			flush();
+	}
+
+	/**
+	 * forces archived {@link Message} to disk
+	 *
+	 */
+	private void flush() {
+		dataBuffer.force();
+		indexBuffer.force();
+		timeIndexBuffer.force();
+		unflushedMessages = 0;
+		lastFlushTime = System.currentTimeMillis();
 	}
-	
+
 	/**
-	 * closes index and data files
-	 * 
+	 * flushes and closes index, data and time index files
+	 * unused pre-allocated space is truncated, files are never
+	 * truncated below their length before opening
+	 *
 	 */
 	public void close() {
 		try {
 			currentFileName = "";
+			if (indexBuffer != null) {
+				flush();
+				indexFile.setLength(Math.max(indexBuffer.position(), indexFileLength));
+				dataFile.setLength(Math.max(dataBuffer.position(), dataFileLength));
+				timeIndexFile.setLength(Math.max(timeIndexBuffer.position(), timeIndexFileLength));
+			}
+		} catch (Exception e) {}
+		try {
+			indexBuffer = null;
+			dataBuffer = null;
+			timeIndexBuffer = null;
 			if (indexFile != null)
 				indexFile.close();
 			if (dataFile != null)
 				dataFile.close();
-			currentFileName = "";
+			if (timeIndexFile != null)
+				timeIndexFile.close();
+			indexFile = null;
+			dataFile = null;
+			timeIndexFile = null;
 		} catch (Exception e) {}
 	}
-	
+
 	/**
-	 * computes {@link Message} size
-	 * 
-	 * @param header - header of the {@link Message}
-	 * @return int
+	 * returns a cursor over {@link Message} sent by this {@link Element} within the time frame
+	 * segments and blocks of index records out of the time frame are skipped
+	 * using time index
+	 *
+	 * @param from - beginning of time frame in milliseconds
+	 * @param to - end of time frame in milliseconds
+	 * @return {@link ArchiveCursor}
 	 */
-	private int getDataSize(byte[] header) {
-		int size = 0;
-		size = header[2];
-		size += BytesUtil.bytesToShort(BytesUtil.copyOfRange(header, 3, 5));
-		size += header[5];
-		size += header[6];
-		size += header[7];
-		size += header[8];
-		size += header[9];
-		size += header[10];
-		size += BytesUtil.bytesToShort(BytesUtil.copyOfRange(header, 11, 13));
-		size += BytesUtil.bytesToShort(BytesUtil.copyOfRange(header, 13, 15));
-		size += header[15];
-		size += BytesUtil.bytesToShort(BytesUtil.copyOfRange(header, 16, 18));
-		size += BytesUtil.bytesToShort(BytesUtil.copyOfRange(header, 18, 20));
-		size += BytesUtil.bytesToShort(BytesUtil.copyOfRange(header, 20, 22));
-		size += header[22];
-		size += header[23];
-		size += header[24];
-		size += BytesUtil.bytesToInteger(BytesUtil.copyOfRange(header, 25, 29));
-		size += BytesUtil.bytesToInteger(BytesUtil.copyOfRange(header, 29, 33));
-		return size;
+	public ArchiveCursor messageQuery(long from, long to) {
+		Long first = segments.floorKey(from);
+		return query(from, to, first == null ? from : first, 0);
 	}
 
 	/**
+	 * resumes a query from a token returned by {@link ArchiveCursor#getToken()}
 	 *
-	 *
-	 * @return
-     */
-	private long freeMemory() {
-		Runtime runtime = Runtime.getRuntime();
-		return runtime.maxMemory() - ((runtime.totalMemory() - runtime.freeMemory()));
+	 * @param token - token
+	 * @return {@link ArchiveCursor}
+	 * @throws IllegalArgumentException if token is malformed
+	 */
+	public ArchiveCursor messageQuery(String token) {
+		long[] position = ArchiveCursor.parseToken(token);
+		return query(position[0], position[1], position[2], (int) position[3]);
 	}
 
 	/**
-	 * retrieves list of {@link Message} sent by this {@link Element} within the time frame 
-	 * 
+	 * creates a cursor over segments starting from a segment and index record
+	 * number of records of current segment is fixed at this point, so
+	 * {@link Message} archived later are not returned
+	 *
 	 * @param from - beginning of time frame in milliseconds
 	 * @param to - end of time frame in milliseconds
-	 * @return list of {@link Message}
+	 * @param firstSegment - timestamp of first segment
+	 * @param firstRecord - index record of first segment
+	 * @return {@link ArchiveCursor}
 	 */
-	public List<Message> messageQuery(long from, long to) {
-		boolean outOfMemory = false;
-		List<Message> result = new ArrayList<>();
-		
-		File workingDirectory = new File(diskDirectory);
-		FilenameFilter filter = new FilenameFilter() {
-			@Override
-			public boolean accept(File dir, String fileName) {
-				return fileName.substring(0, name.length()).equals(name) && fileName.substring(fileName.indexOf(".")).equals(".idx");
-			}
-		};
-		File[] listOfFiles = workingDirectory.listFiles(filter);
-		Arrays.sort(listOfFiles);
-		
-		Stack<File> resultSet = new Stack<>();
-		int i = listOfFiles.length - 1;
-		for (; i >= 0; i--) {
-			File file = listOfFiles[i];
-			if (!file.isFile())
+	private ArchiveCursor query(long from, long to, long firstSegment, int firstRecord) {
+		List<ArchiveCursor.Segment> resultSet = new ArrayList<>();
+		boolean resume = false;
+		if (firstSegment > to)
+			return new ArchiveCursor(from, to, resultSet, 0);
+
+		for (Map.Entry<Long, Segment> entry : segments.subMap(firstSegment, true, to, true).entrySet()) {
+			Segment segment = entry.getValue();
+			if (segment.maxTimestamp < from || segment.minTimestamp > to)
 				continue;
-			long timestamp = Long.parseLong(file.getName().substring(name.length() + 1, file.getName().indexOf(".")));
-			if (timestamp < from)
-				break;
-			if (timestamp >= from && timestamp <= to)
-				resultSet.push(file);
-		}
-		if (i >= 0)
-			resultSet.push(listOfFiles[i]);
-		
-		byte[] header = new byte[HEADER_SIZE];
-		while (!resultSet.isEmpty() && !outOfMemory) {
-			File file = resultSet.pop();
-			String fileName = file.getName();
-			try {
-				RandomAccessFile indexFile = new RandomAccessFile(new File(diskDirectory + fileName), "r");
-				RandomAccessFile dataFile = new RandomAccessFile(new File(diskDirectory + fileName.substring(0, fileName.indexOf(".")) + ".iomsg"), "r");
-				long dataFileLength = dataFile.length();
-				while (indexFile.getFilePointer() < indexFile.length()) {
-					if (freeMemory() < 32 * Constants.MiB) {
-						outOfMemory = true;
-						break;
-					}
-
-					indexFile.read(header, 0, HEADER_SIZE);
-					if (((header[0] * 256) + header[1]) != 4)
-						throw new Exception("invalid index file format");
-					long dataPos = indexFile.readLong();
-					int dataSize = getDataSize(header);
-					if (dataPos + dataSize > dataFileLength || dataSize > dataFileLength)
-						throw new Exception("invalid data file format");
-					byte[] data = new byte[dataSize];
-					dataFile.read(data, 0, dataSize);
-					Message message = new Message(header, data);
-					if (message.getTimestamp() < from || message.getTimestamp() > to)
-						continue;
-					result.add(message);
-				}
-				indexFile.close();
-				dataFile.close();
-			} catch (Exception e) {
-				LoggingService.logWarning("Message Archive", e.getMessage());
+			int records = -1;
+			long[] blocks = null;
+			if (segment == currentSegment && indexBuffer != null) {
+				records = indexBuffer.position() / INDEX_RECORD_SIZE;
+				blocks = new long[(timeIndexBuffer.position() / TIME_INDEX_RECORD_SIZE) * 2];
+				for (int i = 0; i < blocks.length; i++)
+					blocks[i] = timeIndexBuffer.getLong(i * Long.BYTES);
 			}
+			if (resultSet.isEmpty())
+				resume = entry.getKey() == firstSegment;
+			resultSet.add(new ArchiveCursor.Segment(entry.getKey(), diskDirectory + getBaseName(segment.fileName), records, blocks));
 		}
-		
-		return result;
+
+		return new ArchiveCursor(from, to, resultSet, resume ? firstRecord : 0);
 	}
 }
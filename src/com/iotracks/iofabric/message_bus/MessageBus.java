@@ -3,6 +3,7 @@ package com.iotracks.iofabric.message_bus;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -28,7 +29,7 @@ public class MessageBus {
 	
 	private final String MODULE_NAME = "Message Bus";
 
-	private MessageBusServer messageBusServer;
+	private MessageBusTransport messageBusServer;
 	private Map<String, Route> routes;
 	private Map<String, MessagePublisher> publishers;
 	private Map<String, MessageReceiver> receivers;
@@ -102,14 +103,6 @@ public class MessageBus {
 					String publisher = entry.getKey();
 					Route route = entry.getValue();
 				
-					try {
-						messageBusServer.createProducer(publisher);
-					} catch (Exception e) {
-						LoggingService.logWarning(MODULE_NAME + "(" + publisher + ")",
-								"unable to start publisher module --> " + e.getMessage());
-					}
-					publishers.put(publisher, new MessagePublisher(publisher, route, messageBusServer.getProducer(publisher)));
-
 					receivers.putAll(entry.getValue().getReceivers()
 							.stream()
 							.filter(item -> !receivers.containsKey(item))
@@ -120,14 +113,23 @@ public class MessageBus {
 									LoggingService.logWarning(MODULE_NAME + "(" + item + ")",
 											"unable to start receiver module --> " + e.getMessage());
 								}
-								return new MessageReceiver(item, messageBusServer.getConsumer(item));
+								return new MessageReceiver(item, messageBusServer);
 							})));
+
+					try {
+						messageBusServer.createProducer(publisher);
+					} catch (Exception e) {
+						LoggingService.logWarning(MODULE_NAME + "(" + publisher + ")",
+								"unable to start publisher module --> " + e.getMessage());
+					}
+					publishers.put(publisher, new MessagePublisher(publisher, route, messageBusServer));
 			});
 
 	}
 	
 	/**
 	 * calculates the average speed of {@link Message} moving through ioFabric
+	 * and takes latencies recorded since last calculation
 	 * 
 	 */
 	private final Runnable calculateSpeed = () -> {
@@ -141,7 +143,8 @@ public class MessageBus {
 				long msgs = StatusReporter.getMessageBusStatus().getProcessedMessages();
 
 				float speed = ((float)(msgs - lastSpeedMessageCount)) / ((now - lastSpeedTime) / 1000f);
-				StatusReporter.setMessageBusStatus().setAverageSpeed(speed);
+				StatusReporter.setMessageBusStatus().setAverageSpeed(speed)
+					.setLatenciesPerElement(MessageLatencyRecorder.getIntervalHistograms());
 				lastSpeedMessageCount = msgs;
 				lastSpeedTime = now;
 			} catch (Exception e) {}
@@ -181,7 +184,7 @@ public class MessageBus {
 						} else {
 							try {
 								messageBusServer.createProducer(publisher);
-								publishers.put(publisher, new MessagePublisher(publisher, route, messageBusServer.getProducer(publisher)));
+								publishers.put(publisher, new MessagePublisher(publisher, route, messageBusServer));
 								LoggingService.logInfo(MODULE_NAME, "producer module restarted");
 							} catch (Exception e) {
 								LoggingService.logWarning(MODULE_NAME, "unable to restart producer module for " + publisher + " --> " + e.getMessage());
@@ -197,7 +200,7 @@ public class MessageBus {
 						entry.getValue().close();
 						try {
 							messageBusServer.createCosumer(receiver);
-							receivers.put(receiver, new MessageReceiver(receiver, messageBusServer.getConsumer(receiver)));
+							receivers.put(receiver, new MessageReceiver(receiver, messageBusServer));
 							LoggingService.logInfo(MODULE_NAME, "consumer module restarted");
 						} catch (Exception e) {
 							LoggingService.logWarning(MODULE_NAME, "unable to restart consumer module for " + receiver + " --> " + e.getMessage());
@@ -233,10 +236,20 @@ public class MessageBus {
 					});
 			}
 
+			// queues of new receivers are created before any publisher routes to them,
+			// as messages sent to an address without a queue are discarded
+			receivers.putAll(
+					newReceivers.stream()
+					.filter(receiver -> !receivers.containsKey(receiver))
+					.collect(Collectors.toMap(receiver -> receiver, 
+							receiver -> createReceiver(receiver))));
+
 			publishers.entrySet().forEach(entry -> {
 				if (!newPublishers.contains(entry.getKey())) {
 					entry.getValue().close();
 					messageBusServer.removeProducer(entry.getKey());
+				} else {
+					entry.getValue().updateRoute(newRoutes.get(entry.getKey()));
 				}
 			});
 			publishers.entrySet().removeIf(entry -> !newPublishers.contains(entry.getKey()));
@@ -244,7 +257,7 @@ public class MessageBus {
 					newPublishers.stream()
 					.filter(publisher -> !publishers.containsKey(publisher))
 					.collect(Collectors.toMap(publisher -> publisher, 
-							publisher -> new MessagePublisher(publisher, newRoutes.get(publisher), messageBusServer.getProducer(publisher)))));
+							publisher -> createPublisher(publisher, newRoutes.get(publisher)))));
 
 			receivers.entrySet().forEach(entry -> {
 				if (!newReceivers.contains(entry.getKey())) {
@@ -253,23 +266,53 @@ public class MessageBus {
 				}
 			});
 			receivers.entrySet().removeIf(entry -> !newReceivers.contains(entry.getKey()));
-			receivers.putAll(
-					newReceivers.stream()
-					.filter(receiver -> !receivers.containsKey(receiver))
-					.collect(Collectors.toMap(receiver -> receiver, 
-							receiver -> new MessageReceiver(receiver, messageBusServer.getConsumer(receiver)))));
 
 			routes = newRoutes;
 
-			StatusReporter.getMessageBusStatus()
-				.getPublishedMessagesPerElement().entrySet().removeIf(entry -> {
-					return !elementManager.elementExists(entry.getKey());
-				});
-			elementManager.getElements().forEach(e -> {
-				if (!StatusReporter.getMessageBusStatus().getPublishedMessagesPerElement().entrySet().contains(e.getElementId()))
-						StatusReporter.getMessageBusStatus().getPublishedMessagesPerElement().put(e.getElementId(), 0l);
+			MessageBusStatus messageBusStatus = StatusReporter.getMessageBusStatus();
+			messageBusStatus.getPublishedMessagesPerElement().keySet().forEach(element -> {
+				if (!elementManager.elementExists(element)) {
+					messageBusStatus.removeElement(element);
+					MessageLatencyRecorder.remove(element);
+				}
 			});
+			elementManager.getElements().forEach(e -> messageBusStatus.addPublishedMessagesPerElement(e.getElementId()));
+		}
+	}
+	
+	/**
+	 * creates a {@link MessagePublisher} and its producer
+	 * 
+	 * @param publisher - ID of {@link Element}
+	 * @param route - {@link Route} of publisher
+	 * @return {@link MessagePublisher}
+	 */
+	private MessagePublisher createPublisher(String publisher, Route route) {
+		try {
+			if (messageBusServer.isProducerClosed(publisher))
+				messageBusServer.createProducer(publisher);
+		} catch (Exception e) {
+			LoggingService.logWarning(MODULE_NAME + "(" + publisher + ")",
+					"unable to start publisher module --> " + e.getMessage());
+		}
+		return new MessagePublisher(publisher, route, messageBusServer);
+	}
+
+	/**
+	 * creates a {@link MessageReceiver} and its queue
+	 * 
+	 * @param receiver - ID of {@link Element}
+	 * @return {@link MessageReceiver}
+	 */
+	private MessageReceiver createReceiver(String receiver) {
+		try {
+			if (messageBusServer.isConsumerClosed(receiver))
+				messageBusServer.createCosumer(receiver);
+		} catch (Exception e) {
+			LoggingService.logWarning(MODULE_NAME + "(" + receiver + ")",
+					"unable to start receiver module --> " + e.getMessage());
 		}
+		return new MessageReceiver(receiver, messageBusServer);
 	}
 	
 	/**
@@ -288,7 +331,7 @@ public class MessageBus {
 	public void start() {
 		elementManager = ElementManager.getInstance();
 		
-		messageBusServer = new MessageBusServer();
+		messageBusServer = MessageBusTransport.newInstance();
 		try {
 			LoggingService.logInfo(MODULE_NAME, "STARTING MESSAGE BUS SERVER");
 			messageBusServer.startServer();
@@ -343,15 +386,70 @@ public class MessageBus {
 		return receivers.get(receiver);
 	}
 	
+	/**
+	 * returns IDs of receiver {@link Element}
+	 * 
+	 * @return set of IDs
+	 */
+	public Set<String> getReceiverIds() {
+		return receivers.keySet();
+	}
+
+	/**
+	 * returns number of {@link Message} waiting in queue of a receiver
+	 * 
+	 * @param receiver - ID of {@link Element}
+	 * @return number of {@link Message}, -1 if unknown
+	 */
+	public long getQueueDepth(String receiver) {
+		return messageBusServer.getQueueDepth(receiver);
+	}
+
+	/**
+	 * returns memory used by {@link Message} waiting in queue of a receiver
+	 * 
+	 * @param receiver - ID of {@link Element}
+	 * @return bytes, -1 if unknown
+	 */
+	public long getQueueBytes(String receiver) {
+		return messageBusServer.getQueueBytes(receiver);
+	}
+	
+	/**
+	 * notifies receivers of a publisher that new {@link Message} are available
+	 * 
+	 * @param publisher - ID of {@link Element}
+	 */
+	protected void notifyReceivers(String publisher) {
+		Route route = routes == null ? null : routes.get(publisher);
+		if (route == null || route.getReceivers() == null)
+			return;
+		for (String receiver : route.getReceivers()) {
+			MessageReceiver rec = receivers.get(receiver);
+			if (rec != null)
+				rec.notifyWaiters();
+		}
+	}
+
 	/**
 	 * returns next generated message id
 	 * 
 	 * @return
 	 */
-	public synchronized String getNextId() {
+	public String getNextId() {
 		return idGenerator.getNextId();
 	}
 	
+	/**
+	 * returns a number of generated message ids
+	 * 
+	 * @param count - number of ids
+	 * @return
+	 */
+	public List<String> getNextIds(int count) {
+		return idGenerator.getNextIds(count);
+	}
+	
 	/**
 	 * returns routes
 	 * 
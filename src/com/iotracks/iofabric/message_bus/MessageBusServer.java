@@ -1,12 +1,17 @@
 package com.iotracks.iofabric.message_bus;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.hornetq.api.core.HornetQException;
 import org.hornetq.api.core.SimpleString;
@@ -18,18 +23,22 @@ import org.hornetq.api.core.client.ClientSession;
 import org.hornetq.api.core.client.ClientSession.QueueQuery;
 import org.hornetq.api.core.client.ClientSessionFactory;
 import org.hornetq.api.core.client.HornetQClient;
+import org.hornetq.api.core.client.MessageHandler;
 import org.hornetq.api.core.client.ServerLocator;
 import org.hornetq.core.config.impl.ConfigurationImpl;
+import org.hornetq.core.paging.PagingStore;
 import org.hornetq.core.remoting.impl.invm.InVMAcceptorFactory;
 import org.hornetq.core.remoting.impl.invm.InVMConnectorFactory;
 import org.hornetq.core.remoting.impl.netty.NettyAcceptorFactory;
 import org.hornetq.core.server.HornetQServer;
 import org.hornetq.core.server.HornetQServers;
 import org.hornetq.core.server.JournalType;
+import org.hornetq.core.server.Queue;
 import org.hornetq.core.settings.impl.AddressFullMessagePolicy;
 import org.hornetq.core.settings.impl.AddressSettings;
 
 import com.iotracks.iofabric.element.Element;
+import com.iotracks.iofabric.status_reporter.StatusReporter;
 import com.iotracks.iofabric.utils.Constants;
 import com.iotracks.iofabric.utils.configuration.Configuration;
 import com.iotracks.iofabric.utils.logging.LoggingService;
@@ -40,29 +49,38 @@ import com.iotracks.iofabric.utils.logging.LoggingService;
  * @author saeid
  *
  */
-public class MessageBusServer {
+public class MessageBusServer extends MessageBusTransport {
 	
 	private final String MODULE_NAME = "Message Bus Server";
+	private final int CONSUMER_WINDOW_SIZE = 4 * Constants.MiB;
 	private ClientSessionFactory sf;
 	private HornetQServer server;
 	private static ClientSession messageBusSession;
 	private ClientConsumer commandlineConsumer;
 	private static ClientProducer commandlineProducer;
 	private Map<String, ClientConsumer> consumers;
+	private final Map<String, Integer> consumerWindows = new ConcurrentHashMap<>();
+	private final ReadWriteLock consumersLock = new ReentrantReadWriteLock();
 	private Map<String, ClientProducer> producers;
+	private final Map<String, SimpleString> addresses = new ConcurrentHashMap<>();
+	private final Map<String, PagingStore> pagingStores = new ConcurrentHashMap<>();
+	private final Set<String> droppingReceivers = ConcurrentHashMap.newKeySet();
 	private ServerLocator serverLocator;
 	
+	@Override
 	protected boolean isServerActive() {
 		return server.isActive();
 	}
 	
+	@Override
 	protected boolean isProducerClosed(String name) {
-		ClientProducer producer = producers.get(name);
+		ClientProducer producer = producers == null ? null : producers.get(name);
 		return producer == null || producer.isClosed();
 	}
 	
+	@Override
 	protected boolean isConsumerClosed(String name) {
-		ClientConsumer consumer = consumers.get(name); 
+		ClientConsumer consumer = consumers == null ? null : consumers.get(name);
 		return consumer == null || consumer.isClosed();
 	}
 	
@@ -71,6 +89,7 @@ public class MessageBusServer {
 	 * 
 	 * @throws Exception
 	 */
+	@Override
 	protected void startServer() throws Exception {
 		LoggingService.logInfo(MODULE_NAME, "starting...");
 		AddressSettings addressSettings = new AddressSettings();
@@ -88,7 +107,7 @@ public class MessageBusServer {
 		configuration.setPersistenceEnabled(false);
         configuration.setSecurityEnabled(false);
         configuration.setPagingDirectory(workingDirectory + "messages/paging");
-        configuration.getAddressesSettings().put(Constants.address, addressSettings);
+        configuration.getAddressesSettings().put(Constants.address + ".#", addressSettings);
         
 		Map<String, Object> connectionParams = new HashMap<>();
 		connectionParams.put("port", 55555);
@@ -106,6 +125,7 @@ public class MessageBusServer {
         serverLocator = HornetQClient.createServerLocatorWithoutHA(new TransportConfiguration(InVMConnectorFactory.class.getName()));
 
         serverLocator.setUseGlobalPools(false);
+        serverLocator.setConsumerWindowSize(CONSUMER_WINDOW_SIZE);
         serverLocator.setScheduledThreadPoolMaxSize(10);
         serverLocator.setThreadPoolMaxSize(10);
         sf = serverLocator.createSessionFactory();
@@ -117,15 +137,12 @@ public class MessageBusServer {
 	 * 
 	 * @throws Exception
 	 */
+	@Override
 	protected void initialize() throws Exception {
 		messageBusSession = sf.createSession(true, true, 0);
-		QueueQuery queueQuery = messageBusSession.queueQuery(new SimpleString(Constants.address));
-		if (queueQuery.isExists())
-			messageBusSession.deleteQueue(Constants.address);
-		queueQuery = messageBusSession.queueQuery(new SimpleString(Constants.commandlineAddress));
+		QueueQuery queueQuery = messageBusSession.queueQuery(new SimpleString(Constants.commandlineAddress));
 		if (queueQuery.isExists())
 			messageBusSession.deleteQueue(Constants.commandlineAddress);
-		messageBusSession.createQueue(Constants.address, Constants.address, false);
 		messageBusSession.createQueue(Constants.commandlineAddress, Constants.commandlineAddress, false);
 
 		commandlineProducer = messageBusSession.createProducer(Constants.commandlineAddress);
@@ -134,6 +151,7 @@ public class MessageBusServer {
 		commandlineConsumer.setMessageHandler(new CommandLineHandler());
 		messageBusSession.start();
 
+
 //		Runnable countMessages = new Runnable() {
 //			@Override
 //			public void run() {
@@ -148,45 +166,179 @@ public class MessageBusServer {
 //		scheduler.scheduleAtFixedRate(countMessages, 10, 10, TimeUnit.SECONDS);
 	}
 	
+	/**
+	 * returns address of the queue of a receiver {@link Element}
+	 * 
+	 * @param receiver - ID of {@link Element}
+	 * @return address
+	 */
+	protected static SimpleString getAddress(String receiver) {
+		return new SimpleString(Constants.address + "." + receiver);
+	}
+
 	/**
 	 * creates a new {@link ClientConsumer} for receiver {@link Element}
+	 * each receiver has its own queue, so no filter is needed
 	 * 
 	 * @param name - ID of {@link Element}
 	 * @throws Exception
 	 */
+	@Override
 	protected void createCosumer(String name) throws Exception {
 		if (consumers == null)
 			consumers = new ConcurrentHashMap<>();
 
-		ClientConsumer consumer = messageBusSession.createConsumer(Constants.address, String.format("receiver = '%s'", name));
-		consumers.put(name, consumer);
+		SimpleString address = getAddress(name);
+		if (!messageBusSession.queueQuery(address).isExists())
+			messageBusSession.createQueue(address, address, false);
+		ClientConsumer consumer = openConsumer(name, getConsumerWindowSize(getReceiverMemoryLimit(consumers.size() + 1)));
+		if (consumers.put(name, consumer) == null)
+			setMemoryLimit();
 	}
-	
+
 	/**
-	 * returns {@link ClientConsumer} of a receiver {@link Element}
+	 * creates {@link ClientConsumer} of a receiver {@link Element} with a prefetch window
 	 * 
-	 * @param receiver - ID of {@link Element}
+	 * @param name - ID of {@link Element}
+	 * @param windowSize - size of consumer window in bytes
 	 * @return {@link ClientConsumer}
+	 * @throws Exception
 	 */
-	protected ClientConsumer getConsumer(String receiver) {
-		if (consumers == null || !consumers.containsKey(receiver))
-			try {
-				createCosumer(receiver);
-			} catch (Exception e) {
-				return null;
+	private ClientConsumer openConsumer(String name, int windowSize) throws Exception {
+		ClientConsumer consumer = messageBusSession.createConsumer(getAddress(name), null, windowSize, -1, false);
+		consumerWindows.put(name, windowSize);
+		return consumer;
+	}
+
+	/**
+	 * returns prefetch window of receiver consumers for memory limit of each receiver
+	 * buffered {@link Message} are kept on client side as well, so window
+	 * is not more than the memory limit of the receiver
+	 * 
+	 * @param memoryLimit - memory limit of each receiver in bytes
+	 * @return size of consumer window in bytes
+	 */
+	private int getConsumerWindowSize(long memoryLimit) {
+		return (int) Math.min(CONSUMER_WINDOW_SIZE, memoryLimit);
+	}
+
+	/**
+	 * creates consumers of receivers again with a new prefetch window
+	 * HornetQ sets consumer window only when consumer is created.
+	 * old consumer is closed first, so its buffered {@link Message} go back to
+	 * the queue in order, and message handler is moved to the new consumer
+	 * 
+	 * @param windowSize - size of consumer window in bytes
+	 */
+	private void resizeConsumerWindows(int windowSize) {
+		if (consumers == null)
+			return;
+		consumersLock.writeLock().lock();
+		try {
+			for (Map.Entry<String, ClientConsumer> entry : consumers.entrySet()) {
+				ClientConsumer consumer = entry.getValue();
+				Integer consumerWindow = consumerWindows.get(entry.getKey());
+				if (consumer.isClosed() || (consumerWindow != null && consumerWindow == windowSize))
+					continue;
+				try {
+					MessageHandler handler = consumer.getMessageHandler();
+					consumer.close();
+					ClientConsumer resized = openConsumer(entry.getKey(), windowSize);
+					resized.setMessageHandler(handler);
+					entry.setValue(resized);
+				} catch (Exception e) {
+					LoggingService.logWarning(MODULE_NAME, "unable to resize consumer window of " + entry.getKey() + " --> " + e.getMessage());
+				}
 			}
-		return consumers.get(receiver);
+		} finally {
+			consumersLock.writeLock().unlock();
+		}
 	}
 	
+	@Override
+	protected void closeConsumer(String name) {
+		ClientConsumer consumer = consumers == null ? null : consumers.get(name);
+		if (consumer == null)
+			return;
+		try {
+			consumer.close();
+		} catch (Exception e) {}
+	}
+
 	/**
-	 * removes {@link ClientConsumer} when a receiver {@link Element} has been removed
+	 * receives buffered {@link Message} of the consumer window
+	 * acknowledgement of the last one acknowledges all of them
+	 * 
+	 */
+	@Override
+	protected List<byte[]> receive(String receiver, int max, long maxBytes) throws Exception {
+		List<byte[]> result = new ArrayList<>();
+		consumersLock.readLock().lock();
+		try {
+			ClientConsumer consumer = consumers == null ? null : consumers.get(receiver);
+			if (consumer == null || consumer.isClosed())
+				return result;
+
+			ClientMessage last = null;
+			long bytes = 0;
+			while ((max <= 0 || result.size() < max) && (maxBytes <= 0 || bytes < maxBytes)) {
+				ClientMessage msg = consumer.receiveImmediate();
+				if (msg == null)
+					break;
+				byte[] message = msg.getBytesProperty("message");
+				result.add(message);
+				bytes += message.length;
+				last = msg;
+			}
+			if (last != null)
+				last.acknowledge();
+		} finally {
+			consumersLock.readLock().unlock();
+		}
+		return result;
+	}
+
+	@Override
+	protected void setListener(String receiver, MessageListener listener) throws Exception {
+		consumersLock.readLock().lock();
+		try {
+			ClientConsumer consumer = consumers == null ? null : consumers.get(receiver);
+			if (consumer == null || consumer.isClosed())
+				return;
+			if (listener == null) {
+				consumer.setMessageHandler(null);
+				return;
+			}
+			consumer.setMessageHandler(msg -> {
+				try {
+					msg.acknowledge();
+				} catch (Exception e) {}
+				listener.onMessage(msg.getBytesProperty("message"));
+			});
+		} finally {
+			consumersLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * removes {@link ClientConsumer} and queue when a receiver {@link Element} has been removed
 	 * 
 	 * @param name - ID of {@link Element}
 	 */
+	@Override
 	protected void removeConsumer(String name) {
 		if (consumers == null)
 			return;
-		consumers.remove(name);
+		boolean removed = consumers.remove(name) != null;
+		consumerWindows.remove(name);
+		pagingStores.remove(name);
+		try {
+			messageBusSession.deleteQueue(getAddress(name));
+		} catch (Exception e) {
+			LoggingService.logWarning(MODULE_NAME, "unable to delete queue of " + name + " --> " + e.getMessage());
+		}
+		if (removed)
+			setMemoryLimit();
 	}
 	
 	/**
@@ -195,10 +347,11 @@ public class MessageBusServer {
 	 * @param name - ID of {@link Element}
 	 * @throws Exception
 	 */
+	@Override
 	protected void createProducer(String name) throws Exception {
 		if (producers == null)
 			producers = new ConcurrentHashMap<>();
-		ClientProducer producer = messageBusSession.createProducer(Constants.address);
+		ClientProducer producer = messageBusSession.createProducer();
 		producers.put(name, producer);
 	}
 	
@@ -223,12 +376,82 @@ public class MessageBusServer {
 	 * 
 	 * @param name - ID of {@link Element}
 	 */
+	@Override
 	protected void removeProducer(String name) {
 		if (producers == null)
 			return;
 		producers.remove(name);
 	}
 	
+	/**
+	 * checks if address of a receiver {@link Element} has reached its memory limit
+	 * HornetQ applies address full policy while paging a message, and paging is
+	 * skipped by the storage manager used when persistence is disabled,
+	 * so the limit set by {@link #setMemoryLimit()} is applied here and
+	 * {@link Message} to a full address are dropped and counted.
+	 * paging store of the address is looked up once and kept until the queue is removed
+	 * 
+	 * @param receiver - ID of {@link Element}
+	 * @param address - address of the receiver
+	 * @param count - number of {@link Message} to be sent
+	 * @return true if {@link Message} are dropped
+	 */
+	private boolean isFull(String receiver, SimpleString address, int count) {
+		try {
+			PagingStore store = pagingStores.get(receiver);
+			if (store == null) {
+				store = server.getPagingManager().getPageStore(address);
+				pagingStores.put(receiver, store);
+			}
+			if (store.getMaxSize() <= 0 || store.getAddressSize() < store.getMaxSize()) {
+				if (!droppingReceivers.isEmpty())
+					droppingReceivers.remove(receiver);
+				return false;
+			}
+		} catch (Exception e) {
+			return false;
+		}
+		if (droppingReceivers.add(receiver))
+			LoggingService.logWarning(MODULE_NAME, "queue of " + receiver + " is full, dropping messages");
+		StatusReporter.getMessageBusStatus().increaseDroppedMessagesPerElement(receiver, count);
+		return true;
+	}
+
+	@Override
+	protected void send(String publisher, List<String> receivers, byte[] message) throws Exception {
+		ClientProducer producer = getProducer(publisher);
+		for (String receiver : receivers) {
+			SimpleString address = addresses.computeIfAbsent(receiver, MessageBusServer::getAddress);
+			if (isFull(receiver, address, 1))
+				continue;
+			ClientMessage msg = messageBusSession.createMessage(false);
+			msg.putBytesProperty("message", message);
+			producer.send(address, msg);
+		}
+	}
+
+	/**
+	 * sends all messages with the producer of the publisher, on the same session
+	 * as single messages, so a batch never overtakes messages sent before it.
+	 * non-durable messages are sent without waiting for the server,
+	 * so the whole batch is written without a round trip per message
+	 * 
+	 */
+	@Override
+	protected void send(String publisher, List<String> receivers, List<byte[]> messages) throws Exception {
+		ClientProducer producer = getProducer(publisher);
+		for (String receiver : receivers) {
+			SimpleString address = addresses.computeIfAbsent(receiver, MessageBusServer::getAddress);
+			if (isFull(receiver, address, messages.size()))
+				continue;
+			for (byte[] message : messages) {
+				ClientMessage msg = messageBusSession.createMessage(false);
+				msg.putBytesProperty("message", message);
+				producer.send(address, msg);
+			}
+		}
+	}
+
 	protected static ClientSession getSession() {
 		return messageBusSession;
 	}
@@ -242,6 +465,7 @@ public class MessageBusServer {
 	 * 
 	 * @throws Exception
 	 */
+	@Override
 	protected void stopServer() throws Exception {
 		LoggingService.logInfo(MODULE_NAME, "stopping...");
 		if (consumers != null)
@@ -267,16 +491,64 @@ public class MessageBusServer {
 		LoggingService.logInfo(MODULE_NAME, "stopped");
 	}
 
+	/**
+	 * returns message count of the queue of a receiver {@link Element}
+	 * instant count is used, so server executor is not waited for
+	 * 
+	 */
+	@Override
+	protected long getQueueDepth(String receiver) {
+		try {
+			Queue queue = server.locateQueue(getAddress(receiver));
+			return queue == null ? -1 : queue.getInstantMessageCount();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * returns size of the address of a receiver {@link Element},
+	 * which is limited by {@link #setMemoryLimit()}
+	 * 
+	 */
+	@Override
+	protected long getQueueBytes(String receiver) {
+		try {
+			SimpleString address = getAddress(receiver);
+			if (server.locateQueue(address) == null)
+				return -1;
+			return server.getPagingManager().getPageStore(address).getAddressSize();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
 	/**
 	 * sets memory usage limit of HornetQ server
+	 * HornetQ limits each address separately, so the limit is divided
+	 * between addresses of receivers and set again whenever a receiver queue
+	 * is created or removed. existing addresses take the new limit at once
+	 * and consumer windows are resized to fit in it
 	 * 
 	 */
+	@Override
 	public void setMemoryLimit() {
 		AddressSettings addressSettings = new AddressSettings();
-		long memoryLimit = (long) (Configuration.getMemoryLimit() * 1_000_000);
+		long memoryLimit = getReceiverMemoryLimit(consumers == null ? 0 : consumers.size());
 		addressSettings.setMaxSizeBytes(memoryLimit);
 		addressSettings.setAddressFullMessagePolicy(AddressFullMessagePolicy.DROP);
 
-		server.getAddressSettingsRepository().addMatch(Constants.address, addressSettings);
+		server.getAddressSettingsRepository().addMatch(Constants.address + ".#", addressSettings);
+		resizeConsumerWindows(getConsumerWindowSize(memoryLimit));
+	}
+
+	/**
+	 * returns share of memory limit of each receiver
+	 * 
+	 * @param receivers - number of receivers
+	 * @return memory limit in bytes
+	 */
+	private long getReceiverMemoryLimit(int receivers) {
+		return (long) (Configuration.getMemoryLimit() * 1_000_000) / Math.max(1, receivers);
 	}
 }
@@ -2,47 +2,130 @@ package com.iotracks.iofabric.message_bus;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObjectBuilder;
 
+import org.HdrHistogram.Histogram;
+
+import com.iotracks.iofabric.message_bus.MessageLatencyRecorder.Stage;
+
 /**
  * represents Message Bus status
+ * counters are {@link LongAdder}s, so publishing threads update them without contention
  * 
  * @author saeid
  *
  */
 public class MessageBusStatus {
-	private long processedMessages;
-	private Map<String, Long> publishedMessagesPerElement;
-	private float averageSpeed;
+	private final LongAdder processedMessages;
+	private final Map<String, LongAdder> publishedMessagesPerElement;
+	private final Map<String, LongAdder> receivedMessagesPerElement;
+	private final Map<String, LongAdder> archivedBytesPerElement;
+	private final Map<String, LongAdder> droppedMessagesPerElement;
+	private volatile float averageSpeed;
+	private volatile Map<String, Map<Stage, Histogram>> latenciesPerElement;
 	
 	public MessageBusStatus() {
-		publishedMessagesPerElement = new HashMap<>();
-		processedMessages = 0;
+		publishedMessagesPerElement = new ConcurrentHashMap<>();
+		receivedMessagesPerElement = new ConcurrentHashMap<>();
+		archivedBytesPerElement = new ConcurrentHashMap<>();
+		droppedMessagesPerElement = new ConcurrentHashMap<>();
+		processedMessages = new LongAdder();
 		averageSpeed = 0;
+		latenciesPerElement = new HashMap<>();
 	}
 	
 	public long getProcessedMessages() {
-		return processedMessages;
+		return processedMessages.sum();
 	}
 
 	public Long getPublishedMessagesPerElement(String element) {
-		return publishedMessagesPerElement.get(element);
+		LongAdder counter = publishedMessagesPerElement.get(element);
+		return counter == null ? null : counter.sum();
 	}
 
+	/**
+	 * returns a snapshot of published messages count of elements
+	 * 
+	 * @return map of element id to count
+	 */
 	public Map<String, Long> getPublishedMessagesPerElement() {
-		return publishedMessagesPerElement;
+		return getSnapshot(publishedMessagesPerElement);
+	}
+
+	/**
+	 * returns a snapshot of received messages count of elements
+	 * 
+	 * @return map of element id to count
+	 */
+	public Map<String, Long> getReceivedMessagesPerElement() {
+		return getSnapshot(receivedMessagesPerElement);
+	}
+
+	/**
+	 * returns a snapshot of archived bytes of elements
+	 * 
+	 * @return map of element id to bytes
+	 */
+	public Map<String, Long> getArchivedBytesPerElement() {
+		return getSnapshot(archivedBytesPerElement);
+	}
+
+	/**
+	 * returns a snapshot of count of messages dropped because queues of elements were full
+	 * 
+	 * @return map of element id to count
+	 */
+	public Map<String, Long> getDroppedMessagesPerElement() {
+		return getSnapshot(droppedMessagesPerElement);
+	}
+
+	private static Map<String, Long> getSnapshot(Map<String, LongAdder> counters) {
+		Map<String, Long> result = new HashMap<>();
+		counters.forEach((element, counter) -> result.put(element, counter.sum()));
+		return result;
+	}
+
+	private static LongAdder getCounter(Map<String, LongAdder> counters, String element) {
+		LongAdder counter = counters.get(element);
+		if (counter == null)
+			counter = counters.computeIfAbsent(element, key -> new LongAdder());
+		return counter;
 	}
 
 	public MessageBusStatus increasePublishedMessagesPerElement(String element) {
-		this.processedMessages++;
+		this.processedMessages.increment();
+		if (element != null)
+			getCounter(publishedMessagesPerElement, element).increment();
+		return this;
+	}
+
+	public MessageBusStatus increasePublishedMessagesPerElement(String element, long count) {
+		this.processedMessages.add(count);
+		if (element != null)
+			getCounter(publishedMessagesPerElement, element).add(count);
+		return this;
+	}
 
-		Long n = this.publishedMessagesPerElement.get(element);
-		if (n == null)
-			n = 0l;
-		this.publishedMessagesPerElement.put(element, n + 1);
+	public MessageBusStatus increaseReceivedMessagesPerElement(String element, long count) {
+		if (element != null && count > 0)
+			getCounter(receivedMessagesPerElement, element).add(count);
+		return this;
+	}
+
+	public MessageBusStatus increaseDroppedMessagesPerElement(String element, long count) {
+		if (element != null && count > 0)
+			getCounter(droppedMessagesPerElement, element).add(count);
+		return this;
+	}
+
+	public MessageBusStatus increaseArchivedBytesPerElement(String element, long bytes) {
+		if (element != null && bytes > 0)
+			getCounter(archivedBytesPerElement, element).add(bytes);
 		return this;
 	}
 
@@ -55,9 +138,29 @@ public class MessageBusStatus {
 		return this;
 	}
 	
+	/**
+	 * adds element with zero count, if not exists
+	 * 
+	 * @param element - element id
+	 */
+	public void addPublishedMessagesPerElement(String element) {
+		publishedMessagesPerElement.putIfAbsent(element, new LongAdder());
+	}
+
 	public void removePublishedMessagesPerElement(String element) {
-		if (publishedMessagesPerElement.containsKey(element))
-			publishedMessagesPerElement.remove(element);
+		publishedMessagesPerElement.remove(element);
+	}
+
+	/**
+	 * removes all counters of an element
+	 * 
+	 * @param element - element id
+	 */
+	public void removeElement(String element) {
+		publishedMessagesPerElement.remove(element);
+		receivedMessagesPerElement.remove(element);
+		archivedBytesPerElement.remove(element);
+		droppedMessagesPerElement.remove(element);
 	}
 	
 	public String getJsonPublishedMessagesPerElement() {
@@ -65,11 +168,67 @@ public class MessageBusStatus {
 		publishedMessagesPerElement.entrySet().forEach(entry -> {
 			JsonObjectBuilder objectBuilder = Json.createObjectBuilder()
 					.add("id", entry.getKey())
-					.add("messagecount", entry.getValue());
+					.add("messagecount", entry.getValue().sum());
 			arrayBuilder.add(objectBuilder);
 					
 		});
 		return arrayBuilder.build().toString();
 	}
 
+	public MessageBusStatus setLatenciesPerElement(Map<String, Map<Stage, Histogram>> latenciesPerElement) {
+		this.latenciesPerElement = latenciesPerElement;
+		return this;
+	}
+
+	/**
+	 * returns latency of a stage over all elements
+	 * 
+	 * @param stage - stage of message pipeline
+	 * @return latency histogram in microseconds or null if nothing recorded
+	 */
+	public Histogram getLatency(Stage stage) {
+		Histogram result = null;
+		for (Map<Stage, Histogram> histograms : latenciesPerElement.values()) {
+			Histogram histogram = histograms.get(stage);
+			if (histogram == null)
+				continue;
+			if (result == null)
+				result = histogram.copy();
+			else
+				result.add(histogram);
+		}
+		return result;
+	}
+
+	/**
+	 * returns p50, p99 and p999 latencies of stages in milliseconds, per element
+	 * 
+	 * @return JSON array
+	 */
+	public String getJsonLatenciesPerElement() {
+		JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
+		latenciesPerElement.entrySet().forEach(entry -> {
+			JsonObjectBuilder objectBuilder = Json.createObjectBuilder()
+					.add("id", entry.getKey());
+			entry.getValue().forEach((stage, histogram) -> objectBuilder.add(stage.getName(), Json.createObjectBuilder()
+					.add("count", histogram.getTotalCount())
+					.add("p50", getPercentile(histogram, 50))
+					.add("p99", getPercentile(histogram, 99))
+					.add("p999", getPercentile(histogram, 99.9))));
+			arrayBuilder.add(objectBuilder);
+		});
+		return arrayBuilder.build().toString();
+	}
+
+	/**
+	 * returns percentile of latency histogram in milliseconds
+	 * 
+	 * @param histogram - latency histogram in microseconds
+	 * @param percentile - percentile
+	 * @return latency in milliseconds
+	 */
+	public static double getPercentile(Histogram histogram, double percentile) {
+		return histogram.getValueAtPercentile(percentile) / 1000.0;
+	}
+
 }
@@ -0,0 +1,153 @@
+package com.iotracks.iofabric.message_bus;
+
+import java.util.List;
+
+import com.iotracks.iofabric.element.Element;
+import com.iotracks.iofabric.utils.configuration.Configuration;
+
+/**
+ * engine that moves {@link Message} from publishers to receivers
+ *
+ * @author saeid
+ *
+ */
+public abstract class MessageBusTransport {
+
+	/**
+	 * creates the transport selected in {@link Configuration}
+	 *
+	 * @return {@link MessageBusTransport}
+	 */
+	protected static MessageBusTransport newInstance() {
+		if ("memory".equalsIgnoreCase(Configuration.getMessageBusTransport()))
+			return new InMemoryMessageBusServer();
+		return new MessageBusServer();
+	}
+
+	protected abstract boolean isServerActive();
+
+	protected abstract boolean isProducerClosed(String name);
+
+	protected abstract boolean isConsumerClosed(String name);
+
+	/**
+	 * starts the transport
+	 *
+	 * @throws Exception
+	 */
+	protected abstract void startServer() throws Exception;
+
+	/**
+	 * creates command-line queues and sessions
+	 *
+	 * @throws Exception
+	 */
+	protected abstract void initialize() throws Exception;
+
+	/**
+	 * stops all consumers, producers and the transport
+	 *
+	 * @throws Exception
+	 */
+	protected abstract void stopServer() throws Exception;
+
+	/**
+	 * sets memory usage limit of queues
+	 *
+	 */
+	public abstract void setMemoryLimit();
+
+	/**
+	 * creates a producer for publisher {@link Element}
+	 *
+	 * @param name - ID of {@link Element}
+	 * @throws Exception
+	 */
+	protected abstract void createProducer(String name) throws Exception;
+
+	/**
+	 * removes producer when a publisher {@link Element} has been removed
+	 *
+	 * @param name - ID of {@link Element}
+	 */
+	protected abstract void removeProducer(String name);
+
+	/**
+	 * creates a queue and its consumer for receiver {@link Element}
+	 *
+	 * @param name - ID of {@link Element}
+	 * @throws Exception
+	 */
+	protected abstract void createCosumer(String name) throws Exception;
+
+	/**
+	 * closes consumer of a receiver {@link Element}, queue is kept
+	 *
+	 * @param name - ID of {@link Element}
+	 */
+	protected abstract void closeConsumer(String name);
+
+	/**
+	 * removes consumer and queue when a receiver {@link Element} has been removed
+	 *
+	 * @param name - ID of {@link Element}
+	 */
+	protected abstract void removeConsumer(String name);
+
+	/**
+	 * sends a {@link Message} to queues of receivers
+	 *
+	 * @param publisher - ID of publisher {@link Element}
+	 * @param receivers - IDs of receiver {@link Element}
+	 * @param message - encoded {@link Message}
+	 * @throws Exception
+	 */
+	protected abstract void send(String publisher, List<String> receivers, byte[] message) throws Exception;
+
+	/**
+	 * sends a list of {@link Message} to queues of receivers at once
+	 *
+	 * @param publisher - ID of publisher {@link Element}
+	 * @param receivers - IDs of receiver {@link Element}
+	 * @param messages - encoded {@link Message}
+	 * @throws Exception
+	 */
+	protected abstract void send(String publisher, List<String> receivers, List<byte[]> messages) throws Exception;
+
+	/**
+	 * receives {@link Message} of a receiver {@link Element} without waiting
+	 * until queue is empty or a limit is reached, and acknowledges them at once
+	 *
+	 * @param receiver - ID of {@link Element}
+	 * @param max - maximum number of {@link Message}, 0 for no limit
+	 * @param maxBytes - maximum total size of {@link Message}, 0 for no limit
+	 * @return list of encoded {@link Message}
+	 * @throws Exception
+	 */
+	protected abstract List<byte[]> receive(String receiver, int max, long maxBytes) throws Exception;
+
+	/**
+	 * sets {@link MessageListener} for real-time receiving
+	 *
+	 * @param receiver - ID of {@link Element}
+	 * @param listener - {@link MessageListener} or null to stop real-time receiving
+	 * @throws Exception
+	 */
+	protected abstract void setListener(String receiver, MessageListener listener) throws Exception;
+
+	/**
+	 * returns number of {@link Message} waiting in queue of a receiver {@link Element}
+	 *
+	 * @param receiver - ID of {@link Element}
+	 * @return number of {@link Message}, -1 if there is no queue
+	 */
+	protected abstract long getQueueDepth(String receiver);
+
+	/**
+	 * returns memory used by {@link Message} waiting in queue of a receiver {@link Element}
+	 *
+	 * @param receiver - ID of {@link Element}
+	 * @return bytes, -1 if there is no queue
+	 */
+	protected abstract long getQueueBytes(String receiver);
+}
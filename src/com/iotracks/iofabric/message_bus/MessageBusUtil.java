@@ -1,7 +1,9 @@
 package com.iotracks.iofabric.message_bus;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.iotracks.iofabric.element.Element;
 import com.iotracks.iofabric.element.Route;
@@ -23,21 +25,59 @@ public class MessageBusUtil {
 	 * @return published {@link Message} containing the id and timestamp 
 	 */
 	public void publishMessage(Message message) {
+		long start = System.nanoTime();
 		long timestamp = System.currentTimeMillis();
-		StatusReporter.setMessageBusStatus().increasePublishedMessagesPerElement(message.getPublisher());
+		StatusReporter.getMessageBusStatus().increasePublishedMessagesPerElement(message.getPublisher());
 		message.setId(messageBus.getNextId());
 		message.setTimestamp(timestamp);
 		
 		MessagePublisher publisher = messageBus.getPublisher(message.getPublisher());
 		if (publisher != null) {
 			try {
-				publisher.publish(message);
+				publisher.publish(message, start);
 			} catch (Exception e) {
 				LoggingService.logWarning("Message Publisher (" + publisher.getName() + ")", "unable to send message --> " + e.getMessage());
 			}
+			messageBus.notifyReceivers(message.getPublisher());
 		}
 	}
 	
+	/**
+	 * sets messageId and timestamp of a list of {@link Message} and publishes them
+	 * ids are generated at once and all messages get the same timestamp
+	 * messages of each publisher are published as one batch
+	 * 
+	 * @param messages - list of {@link Message} to be published
+	 */
+	public void publishBatch(List<Message> messages) {
+		if (messages.isEmpty())
+			return;
+
+		long start = System.nanoTime();
+		long timestamp = System.currentTimeMillis();
+		List<String> ids = messageBus.getNextIds(messages.size());
+		Map<String, List<Message>> batches = new LinkedHashMap<>();
+		for (int i = 0; i < messages.size(); i++) {
+			Message message = messages.get(i);
+			message.setId(ids.get(i));
+			message.setTimestamp(timestamp);
+			batches.computeIfAbsent(message.getPublisher(), key -> new ArrayList<>()).add(message);
+		}
+
+		batches.entrySet().forEach(entry -> {
+			StatusReporter.getMessageBusStatus().increasePublishedMessagesPerElement(entry.getKey(), entry.getValue().size());
+			MessagePublisher publisher = messageBus.getPublisher(entry.getKey());
+			if (publisher != null) {
+				try {
+					publisher.publishBatch(entry.getValue(), start);
+				} catch (Exception e) {
+					LoggingService.logWarning("Message Publisher (" + publisher.getName() + ")", "unable to send messages --> " + e.getMessage());
+				}
+				messageBus.notifyReceivers(entry.getKey());
+			}
+		});
+	}
+	
 	/**
 	 * gets list of {@link Message} for receiver
 	 * 
@@ -45,11 +85,24 @@ public class MessageBusUtil {
 	 * @return list of {@link Message}
 	 */
 	public List<Message> getMessages(String receiver) {
+		return getMessages(receiver, 0, 0);
+	}
+
+	/**
+	 * gets up to a number or a total size of {@link Message} for receiver
+	 * 
+	 * @param receiver - ID of {@link Element}
+	 * @param max - maximum number of {@link Message}, 0 for no limit
+	 * @param maxBytes - maximum total size of {@link Message}, 0 for no limit
+	 * @return list of {@link Message}
+	 */
+	public List<Message> getMessages(String receiver, int max, long maxBytes) {
 		List<Message> messages = new ArrayList<>();
 		MessageReceiver rec = messageBus.getReceiver(receiver); 
 		if (rec != null) {
 			try {
-				messages = rec.getMessages();
+				messages = rec.getMessages(max, maxBytes);
+				StatusReporter.getMessageBusStatus().increaseReceivedMessagesPerElement(receiver, messages.size());
 			} catch (Exception e) {
 				LoggingService.logWarning("Message Receiver (" + receiver + ")", "unable to receive messages --> " + e.getMessage());
 			}
@@ -58,23 +111,81 @@ public class MessageBusUtil {
 	}
 	
 	/**
-	 * gets list of {@link Message} within a time frame
+	 * adds a waiter to be run whenever a {@link Message} is sent to receiver
+	 * 
+	 * @param receiver - ID of {@link Element}
+	 * @param waiter - {@link Runnable} to be run by publishing thread
+	 * @return false if receiver does not exist
+	 */
+	public boolean addMessageWaiter(String receiver, Runnable waiter) {
+		MessageReceiver rec = messageBus.getReceiver(receiver);
+		if (rec == null)
+			return false;
+		rec.addWaiter(waiter);
+		return true;
+	}
+
+	/**
+	 * removes a waiter added by {@link #addMessageWaiter(String, Runnable)}
+	 * 
+	 * @param receiver - ID of {@link Element}
+	 * @param waiter - {@link Runnable}
+	 */
+	public void removeMessageWaiter(String receiver, Runnable waiter) {
+		MessageReceiver rec = messageBus.getReceiver(receiver);
+		if (rec != null)
+			rec.removeWaiter(waiter);
+	}
+
+	/**
+	 * gets {@link Message} within a time frame
+	 * returned cursor must be closed by caller
 	 * 
 	 * @param publisher - ID of {@link Element}
 	 * @param receiver - ID of {@link Element}
 	 * @param from - beginning of time frame
 	 * @param to - end of time frame
-	 * @return list of {@link Message}
+	 * @return {@link ArchiveCursor}
 	 */
-	public List<Message> messageQuery(String publisher, String receiver, long from, long to) {
-		Route route = messageBus.getRoutes().get(publisher); 
-		if (to < from || route == null || !route.getReceivers().contains(receiver))
+	public ArchiveCursor messageQuery(String publisher, String receiver, long from, long to) {
+		if (to < from)
 			return null;
 
-		MessagePublisher messagePublisher = messageBus.getPublisher(publisher);
+		MessagePublisher messagePublisher = getPublisher(publisher, receiver);
 		if (messagePublisher == null)
 			return null;
 		return messagePublisher.messageQuery(from, to);
 	}
+
+	/**
+	 * resumes a query of {@link Message}
+	 * returned cursor must be closed by caller
+	 * 
+	 * @param publisher - ID of {@link Element}
+	 * @param receiver - ID of {@link Element}
+	 * @param token - token returned by {@link ArchiveCursor#getToken()}
+	 * @return {@link ArchiveCursor}
+	 * @throws IllegalArgumentException if token is malformed
+	 */
+	public ArchiveCursor messageQuery(String publisher, String receiver, String token) {
+		MessagePublisher messagePublisher = getPublisher(publisher, receiver);
+		if (messagePublisher == null)
+			return null;
+		return messagePublisher.messageQuery(token);
+	}
+
+	/**
+	 * returns {@link MessagePublisher} if receiver is in its route
+	 * 
+	 * @param publisher - ID of {@link Element}
+	 * @param receiver - ID of {@link Element}
+	 * @return {@link MessagePublisher}
+	 */
+	private MessagePublisher getPublisher(String publisher, String receiver) {
+		Route route = messageBus.getRoutes().get(publisher); 
+		if (route == null || !route.getReceivers().contains(receiver))
+			return null;
+		return messageBus.getPublisher(publisher);
+	}
 	
 }
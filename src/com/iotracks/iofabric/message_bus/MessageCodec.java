@@ -0,0 +1,411 @@
+package com.iotracks.iofabric.message_bus;
+
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * encodes and decodes {@link Message} in IOMessage v4 wire format
+ * using caller-supplied buffers and absolute index access
+ *
+ * v4 layout is a 33 bytes header, holding size of each field, followed by
+ * fields data in the same order
+ *
+ * @author saeid
+ *
+ */
+public final class MessageCodec {
+	public static final short VERSION = 4;
+	public static final int HEADER_SIZE = 33;
+
+	static final int ID = 0;
+	static final int TAG = 1;
+	static final int GROUP_ID = 2;
+	static final int SEQUENCE_NUMBER = 3;
+	static final int SEQUENCE_TOTAL = 4;
+	static final int PRIORITY = 5;
+	static final int TIMESTAMP = 6;
+	static final int PUBLISHER = 7;
+	static final int AUTH_IDENTIFIER = 8;
+	static final int AUTH_GROUP = 9;
+	static final int CHAIN_POSITION = 10;
+	static final int HASH = 11;
+	static final int PREVIOUS_HASH = 12;
+	static final int NONCE = 13;
+	static final int DIFFICULTY_TARGET = 14;
+	static final int INFO_TYPE = 15;
+	static final int INFO_FORMAT = 16;
+	static final int CONTEXT_DATA = 17;
+	static final int CONTENT_DATA = 18;
+	static final int FIELDS_COUNT = 19;
+
+	// position and width of the size of each field in header
+	private static final int[] SIZE_OFFSETS = { 2, 3, 5, 6, 7, 8, 9, 10, 11, 13, 15, 16, 18, 20, 22, 23, 24, 25, 29 };
+	private static final int[] SIZE_WIDTHS = { 1, 2, 1, 1, 1, 1, 1, 1, 2, 2, 1, 2, 2, 2, 1, 1, 1, 4, 4 };
+
+	private MessageCodec() {
+	}
+
+	/**
+	 * computes exact number of bytes needed to encode the {@link Message}
+	 *
+	 * @param message - {@link Message} to be encoded
+	 * @return size in bytes
+	 */
+	public static int getSize(Message message) {
+		byte[] raw = message.getRawBytes();
+		if (raw != null)
+			return raw.length;
+
+		int size = HEADER_SIZE;
+		size += utf8Length(message.getId());
+		size += utf8Length(message.getTag());
+		size += utf8Length(message.getMessageGroupId());
+		size += message.getSequenceNumber() == 0 ? 0 : Integer.BYTES;
+		size += message.getSequenceTotal() == 0 ? 0 : Integer.BYTES;
+		size += message.getPriority() == 0 ? 0 : Byte.BYTES;
+		size += message.getTimestamp() == 0 ? 0 : Long.BYTES;
+		size += utf8Length(message.getPublisher());
+		size += utf8Length(message.getAuthIdentifier());
+		size += utf8Length(message.getAuthGroup());
+		size += message.getChainPosition() == 0 ? 0 : Long.BYTES;
+		size += utf8Length(message.getHash());
+		size += utf8Length(message.getPreviousHash());
+		size += utf8Length(message.getNonce());
+		size += message.getDifficultyTarget() == 0 ? 0 : Integer.BYTES;
+		size += utf8Length(message.getInfoType());
+		size += utf8Length(message.getInfoFormat());
+		size += message.getContextData() == null ? 0 : message.getContextData().length;
+		size += message.getContentData() == null ? 0 : message.getContentData().length;
+		return size;
+	}
+
+	/**
+	 * encodes {@link Message} into buffer, starting at its current position
+	 * buffer position is advanced by encoded size
+	 *
+	 * @param message - {@link Message} to be encoded
+	 * @param buffer - destination buffer
+	 * @throws IllegalArgumentException if a field does not fit into its size slot
+	 * @throws BufferOverflowException if buffer has not enough room
+	 */
+	public static void encode(Message message, ByteBuffer buffer) {
+		int size = getSize(message);
+		if (buffer.remaining() < size)
+			throw new BufferOverflowException();
+
+		byte[] raw = message.getRawBytes();
+		if (raw != null) {
+			buffer.put(raw);
+			return;
+		}
+
+		int header = buffer.position();
+		int pos = header + HEADER_SIZE;
+		buffer.putShort(header, VERSION);
+
+		pos = putString(buffer, header, pos, ID, message.getId());
+		pos = putString(buffer, header, pos, TAG, message.getTag());
+		pos = putString(buffer, header, pos, GROUP_ID, message.getMessageGroupId());
+		pos = putInt(buffer, header, pos, SEQUENCE_NUMBER, message.getSequenceNumber());
+		pos = putInt(buffer, header, pos, SEQUENCE_TOTAL, message.getSequenceTotal());
+		if (message.getPriority() == 0)
+			putSize(buffer, header, PRIORITY, 0);
+		else {
+			putSize(buffer, header, PRIORITY, Byte.BYTES);
+			buffer.put(pos, message.getPriority());
+			pos += Byte.BYTES;
+		}
+		pos = putLong(buffer, header, pos, TIMESTAMP, message.getTimestamp());
+		pos = putString(buffer, header, pos, PUBLISHER, message.getPublisher());
+		pos = putString(buffer, header, pos, AUTH_IDENTIFIER, message.getAuthIdentifier());
+		pos = putString(buffer, header, pos, AUTH_GROUP, message.getAuthGroup());
+		pos = putLong(buffer, header, pos, CHAIN_POSITION, message.getChainPosition());
+		pos = putString(buffer, header, pos, HASH, message.getHash());
+		pos = putString(buffer, header, pos, PREVIOUS_HASH, message.getPreviousHash());
+		pos = putString(buffer, header, pos, NONCE, message.getNonce());
+		pos = putInt(buffer, header, pos, DIFFICULTY_TARGET, message.getDifficultyTarget());
+		pos = putString(buffer, header, pos, INFO_TYPE, message.getInfoType());
+		pos = putString(buffer, header, pos, INFO_FORMAT, message.getInfoFormat());
+		pos = putBytes(buffer, header, pos, CONTEXT_DATA, message.getContextData());
+		pos = putBytes(buffer, header, pos, CONTENT_DATA, message.getContentData());
+
+		buffer.position(pos);
+	}
+
+	/**
+	 * encodes {@link Message} into Netty buffer, starting at its writer index
+	 * writer index is advanced by encoded size
+	 *
+	 * @param message - {@link Message} to be encoded
+	 * @param buf - destination buffer
+	 */
+	public static void encode(Message message, ByteBuf buf) {
+		byte[] raw = message.getRawBytes();
+		if (raw != null) {
+			buf.writeBytes(raw);
+			return;
+		}
+
+		int size = getSize(message);
+		buf.ensureWritable(size);
+		if (buf.nioBufferCount() == 1) {
+			ByteBuffer buffer = buf.nioBuffer(buf.writerIndex(), size);
+			encode(message, buffer);
+		} else {
+			ByteBuffer buffer = ByteBuffer.allocate(size);
+			encode(message, buffer);
+			buf.setBytes(buf.writerIndex(), buffer.array());
+		}
+		buf.writerIndex(buf.writerIndex() + size);
+	}
+
+	/**
+	 * decodes {@link Message} starting at current position of buffer
+	 * bytes of the {@link Message} are copied and fields are decoded on demand
+	 * buffer position is not changed
+	 *
+	 * @param buffer - source buffer
+	 * @return {@link Message}
+	 * @throws IllegalArgumentException if buffer does not hold the whole {@link Message}
+	 */
+	public static Message decode(ByteBuffer buffer) {
+		int index = buffer.position();
+		int size = HEADER_SIZE;
+		if (buffer.getShort(index) == VERSION)
+			size += getDataSize(buffer, index);
+		if (size > buffer.remaining())
+			throw new IllegalArgumentException("incomplete message");
+		byte[] bytes = new byte[size];
+		buffer.duplicate().get(bytes);
+		return new Message(bytes);
+	}
+
+	/**
+	 * decodes {@link Message} starting at reader index of Netty buffer
+	 * reader index is not changed
+	 *
+	 * @param buf - source buffer
+	 * @return {@link Message}
+	 */
+	public static Message decode(ByteBuf buf) {
+		return decode(buf.nioBuffer(buf.readerIndex(), buf.readableBytes()));
+	}
+
+	/**
+	 * returns size of a field as stored in header
+	 *
+	 * @param header - buffer holding the header
+	 * @param headerIndex - index of header in buffer
+	 * @param field - field identifier
+	 * @return size in bytes
+	 */
+	static int getFieldSize(ByteBuffer header, int headerIndex, int field) {
+		int index = headerIndex + SIZE_OFFSETS[field];
+		switch (SIZE_WIDTHS[field]) {
+		case 1:
+			return header.get(index) & 0xff;
+		case 2:
+			return header.getShort(index) & 0xffff;
+		default:
+			return header.getInt(index);
+		}
+	}
+
+	/**
+	 * returns offset of a field relative to the beginning of fields data
+	 *
+	 * @param header - buffer holding the header
+	 * @param headerIndex - index of header in buffer
+	 * @param field - field identifier
+	 * @return offset in bytes
+	 */
+	static int getFieldOffset(ByteBuffer header, int headerIndex, int field) {
+		int offset = 0;
+		for (int i = 0; i < field; i++)
+			offset += getFieldSize(header, headerIndex, i);
+		return offset;
+	}
+
+	/**
+	 * computes size of fields data of a {@link Message}
+	 *
+	 * @param header - buffer holding the header
+	 * @param headerIndex - index of header in buffer
+	 * @return size in bytes
+	 */
+	public static int getDataSize(ByteBuffer header, int headerIndex) {
+		return getFieldOffset(header, headerIndex, FIELDS_COUNT);
+	}
+
+	static String getString(ByteBuffer buffer, int index, int size) {
+		if (size == 0)
+			return null;
+		if (buffer.hasArray())
+			return new String(buffer.array(), buffer.arrayOffset() + index, size, StandardCharsets.UTF_8);
+		return new String(getBytes(buffer, index, size), StandardCharsets.UTF_8);
+	}
+
+	static byte[] getBytes(ByteBuffer buffer, int index, int size) {
+		if (size == 0)
+			return null;
+		byte[] result = new byte[size];
+		if (buffer.hasArray())
+			System.arraycopy(buffer.array(), buffer.arrayOffset() + index, result, 0, size);
+		else
+			positioned(buffer, index).get(result);
+		return result;
+	}
+
+	/**
+	 * returns a view of buffer positioned at index, for bulk get and put
+	 * on direct buffers without changing position of buffer
+	 *
+	 * @param buffer - buffer
+	 * @param index - position of the view
+	 * @return {@link ByteBuffer}
+	 */
+	private static ByteBuffer positioned(ByteBuffer buffer, int index) {
+		ByteBuffer result = buffer.duplicate();
+		// called on Buffer, ByteBuffer.position(int) does not exist before Java 9
+		((Buffer) result).position(index);
+		return result;
+	}
+
+	static long getNumber(ByteBuffer buffer, int index, int size) {
+		switch (size) {
+		case 0:
+			return 0;
+		case Integer.BYTES:
+			return buffer.getInt(index);
+		case Long.BYTES:
+			return buffer.getLong(index);
+		default:
+			long result = 0;
+			for (int i = 0; i < size; i++)
+				result = (result << 8) + (buffer.get(index + i) & 0xff);
+			return result;
+		}
+	}
+
+	private static void putSize(ByteBuffer buffer, int header, int field, int size) {
+		int index = header + SIZE_OFFSETS[field];
+		switch (SIZE_WIDTHS[field]) {
+		case 1:
+			if (size > 0xff)
+				throw new IllegalArgumentException("field " + field + " is too long");
+			buffer.put(index, (byte) size);
+			break;
+		case 2:
+			if (size > 0xffff)
+				throw new IllegalArgumentException("field " + field + " is too long");
+			buffer.putShort(index, (short) size);
+			break;
+		default:
+			buffer.putInt(index, size);
+		}
+	}
+
+	private static int putString(ByteBuffer buffer, int header, int pos, int field, String value) {
+		int size = utf8Length(value);
+		putSize(buffer, header, field, size);
+		if (size > 0)
+			writeUtf8(buffer, pos, value);
+		return pos + size;
+	}
+
+	private static int putInt(ByteBuffer buffer, int header, int pos, int field, int value) {
+		if (value == 0) {
+			putSize(buffer, header, field, 0);
+			return pos;
+		}
+		putSize(buffer, header, field, Integer.BYTES);
+		buffer.putInt(pos, value);
+		return pos + Integer.BYTES;
+	}
+
+	private static int putLong(ByteBuffer buffer, int header, int pos, int field, long value) {
+		if (value == 0) {
+			putSize(buffer, header, field, 0);
+			return pos;
+		}
+		putSize(buffer, header, field, Long.BYTES);
+		buffer.putLong(pos, value);
+		return pos + Long.BYTES;
+	}
+
+	private static int putBytes(ByteBuffer buffer, int header, int pos, int field, byte[] value) {
+		if (value == null) {
+			putSize(buffer, header, field, 0);
+			return pos;
+		}
+		putSize(buffer, header, field, value.length);
+		if (buffer.hasArray())
+			System.arraycopy(value, 0, buffer.array(), buffer.arrayOffset() + pos, value.length);
+		else
+			positioned(buffer, pos).put(value);
+		return pos + value.length;
+	}
+
+	/**
+	 * computes UTF-8 encoded length of a string without encoding it
+	 *
+	 * @param str - string
+	 * @return length in bytes
+	 */
+	static int utf8Length(String str) {
+		if (str == null)
+			return 0;
+		int length = str.length();
+		int result = length;
+		for (int i = 0; i < length; i++) {
+			char c = str.charAt(i);
+			if (c < 0x80)
+				continue;
+			if (c < 0x800)
+				result += 1;
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+				result += 2;
+				i++;
+			} else if (!Character.isSurrogate(c))
+				result += 2;
+		}
+		return result;
+	}
+
+	/**
+	 * writes UTF-8 encoded string at index of buffer
+	 * malformed surrogates are replaced by '?', same as {@link String#getBytes()}
+	 *
+	 * @param buffer - destination buffer
+	 * @param index - start index
+	 * @param str - string
+	 */
+	private static void writeUtf8(ByteBuffer buffer, int index, String str) {
+		int length = str.length();
+		for (int i = 0; i < length; i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				buffer.put(index++, (byte) c);
+			} else if (c < 0x800) {
+				buffer.put(index++, (byte) (0xc0 | (c >> 6)));
+				buffer.put(index++, (byte) (0x80 | (c & 0x3f)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, str.charAt(++i));
+				buffer.put(index++, (byte) (0xf0 | (codePoint >> 18)));
+				buffer.put(index++, (byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+				buffer.put(index++, (byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+				buffer.put(index++, (byte) (0x80 | (codePoint & 0x3f)));
+			} else if (Character.isSurrogate(c)) {
+				buffer.put(index++, (byte) '?');
+			} else {
+				buffer.put(index++, (byte) (0xe0 | (c >> 12)));
+				buffer.put(index++, (byte) (0x80 | ((c >> 6) & 0x3f)));
+				buffer.put(index++, (byte) (0x80 | (c & 0x3f)));
+			}
+		}
+	}
+}
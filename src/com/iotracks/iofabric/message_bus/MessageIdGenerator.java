@@ -1,91 +1,88 @@
 package com.iotracks.iofabric.message_bus;
 
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.UUID;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * class to generate unique id for {@link Message}
+ * id is time and sequence followed by a random node id picked at startup, in base 58.
+ * time and sequence share one atomic counter, so ids are generated without
+ * locking or waiting. when sequence of a millisecond runs out, next millisecond is used
  * 
  * @author saeid
  *
  */
 public class MessageIdGenerator {
-	private final char[] ALPHABETS_ARRAY = "ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz123456789".toCharArray();
+	private static final char[] ALPHABETS_ARRAY = "ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz123456789".toCharArray();
+
+	private static final long EPOCH = 1451606400000L;	// 2016-01-01T00:00:00Z
+	private static final int SEQUENCE_BITS = 20;
+	private static final int ID_PART_LENGTH = 11;		// 58^11 > 2^63
+
+	private final AtomicLong lastTimeSequence = new AtomicLong();
+	private final String node;
+
+	public MessageIdGenerator() {
+		node = toBase58(new SecureRandom().nextLong() >>> 1, ID_PART_LENGTH);
+	}
 
 	/**
-	 * converts base 10 to base 58
+	 * converts base 10 to base 58, left padded to length
 	 * 
 	 * @param number - number to be converted
+	 * @param length - number of characters
 	 * @return base 58 presentation of number
 	 */
-	private String toBase58(long number) {
-		StringBuilder result = new StringBuilder();
-		while (number >= 58) {
-			result.append(ALPHABETS_ARRAY[(int) (number % 58)]);
+	private static String toBase58(long number, int length) {
+		char[] result = new char[length];
+		for (int i = length - 1; i >= 0; i--) {
+			result[i] = ALPHABETS_ARRAY[(int) (number % 58)];
 			number /= 58;
 		}
-		result.append(ALPHABETS_ARRAY[(int) number]);
-		return result.reverse().toString();
+		return new String(result);
 	}
 
-	
-	private final int MAX_SEQUENCE = 100000000;
-	private volatile long lastTime = 0;
-	private volatile int sequence = MAX_SEQUENCE;
 	/**
-	 * generates unique id based on time and sequence  
+	 * reserves count consecutive time and sequence values
 	 * 
-	 * @param time - timestamp in milliseconds
+	 * @param count - number of values
+	 * @return first value
 	 */
-	public synchronized String generate(long time) {
-		if (lastTime == time) {
-			sequence--;
-		} else {
-			lastTime = time;
-			sequence = MAX_SEQUENCE;
-		}
-		return toBase58(time) + toBase58(sequence);
+	private long reserve(int count) {
+		long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+		long last, first;
+		do {
+			last = lastTimeSequence.get();
+			first = Math.max(last + 1, now);
+		} while (!lastTimeSequence.compareAndSet(last, first + count - 1));
+		return first;
 	}
 
-	
-	// uuid
-	private final int PRE_GENERATED_IDS_COUNT = 100_000;
-	private boolean isRefilling = false;
-	Queue<String> generatedIds = new LinkedList<>();
 	/**
-	 * generates unique id based on UUID
-	 * 
-	 */
-	private final Runnable refill = () -> {
-		if (isRefilling)
-			return;
-		isRefilling = true;
-		while (generatedIds.size() < PRE_GENERATED_IDS_COUNT)
-			synchronized (generatedIds) {
-				generatedIds.offer(UUID.randomUUID().toString().replaceAll("-", ""));
-			}
-		isRefilling = false;
-	};
-	
-	/**
-	 * returns next generated id from list
+	 * returns next generated id
 	 * 
 	 * @return id
 	 */
 	public String getNextId() {
-		while (generatedIds.size() == 0);
-		synchronized (generatedIds) {
-			return generatedIds.poll();
-		}
+		return toBase58(reserve(1), ID_PART_LENGTH) + node;
 	}
 	
-	public MessageIdGenerator() {
-		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-		scheduler.scheduleAtFixedRate(refill, 0, 5, TimeUnit.SECONDS);
+	/**
+	 * returns a number of generated ids
+	 * 
+	 * @param count - number of ids
+	 * @return list of ids
+	 */
+	public List<String> getNextIds(int count) {
+		List<String> result = new ArrayList<>(count);
+		if (count <= 0)
+			return result;
+		long first = reserve(count);
+		for (int i = 0; i < count; i++)
+			result.add(toBase58(first + i, ID_PART_LENGTH) + node);
+		return result;
 	}
 	
 //			 			 1         2         3         4         5         6         7         8         9         0         1         2         3         4         5         6         7         
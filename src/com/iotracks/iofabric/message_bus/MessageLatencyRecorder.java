@@ -0,0 +1,111 @@
+package com.iotracks.iofabric.message_bus;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * records latency of {@link Message}s through the stages of the message pipeline, per element
+ * latencies are recorded in microseconds by HdrHistogram {@link Recorder}s,
+ * which neither lock nor allocate on record
+ * 
+ * @author saeid
+ *
+ */
+public class MessageLatencyRecorder {
+	public enum Stage {
+		ARCHIVE("archive"),		// publish to message saved in archive
+		SEND("send"),			// publish to message sent to broker
+		DELIVER("deliver"),		// publish to real-time listener of receiver
+		ACK("ack");				// websocket write to acknowledgement by receiver
+
+		private final String name;
+
+		Stage(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	private static final long HIGHEST_VALUE = TimeUnit.MINUTES.toMicros(10);
+	private static final int SIGNIFICANT_DIGITS = 2;
+
+	private static final Map<String, Recorder[]> recorders = new ConcurrentHashMap<>();
+
+	private MessageLatencyRecorder() {
+	}
+
+	private static Recorder getRecorder(String element, Stage stage) {
+		Recorder[] elementRecorders = recorders.get(element);
+		if (elementRecorders == null)
+			elementRecorders = recorders.computeIfAbsent(element, key -> {
+				Recorder[] result = new Recorder[Stage.values().length];
+				for (int i = 0; i < result.length; i++)
+					result[i] = new Recorder(HIGHEST_VALUE, SIGNIFICANT_DIGITS);
+				return result;
+			});
+		return elementRecorders[stage.ordinal()];
+	}
+
+	/**
+	 * records latency of a stage
+	 * 
+	 * @param element - ID of element
+	 * @param stage - stage of message pipeline
+	 * @param micros - latency in microseconds
+	 */
+	public static void record(String element, Stage stage, long micros) {
+		if (element == null)
+			return;
+		getRecorder(element, stage).recordValue(Math.max(0, Math.min(micros, HIGHEST_VALUE)));
+	}
+
+	/**
+	 * records latency of a stage started at startNanos
+	 * 
+	 * @param element - ID of element
+	 * @param stage - stage of message pipeline
+	 * @param startNanos - {@link System#nanoTime()} at start of stage
+	 */
+	public static void recordSince(String element, Stage stage, long startNanos) {
+		record(element, stage, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+	}
+
+	/**
+	 * removes recorders of an element
+	 * 
+	 * @param element - ID of element
+	 */
+	public static void remove(String element) {
+		recorders.remove(element);
+	}
+
+	/**
+	 * returns latencies recorded since last call, per element and stage
+	 * stages without any record are left out
+	 * 
+	 * @return map of element id to histograms of stages
+	 */
+	public static Map<String, Map<Stage, Histogram>> getIntervalHistograms() {
+		Map<String, Map<Stage, Histogram>> result = new HashMap<>();
+		recorders.forEach((element, elementRecorders) -> {
+			Map<Stage, Histogram> histograms = new EnumMap<>(Stage.class);
+			for (Stage stage : Stage.values()) {
+				Histogram histogram = elementRecorders[stage.ordinal()].getIntervalHistogram();
+				if (histogram.getTotalCount() > 0)
+					histograms.put(stage, histogram);
+			}
+			if (!histograms.isEmpty())
+				result.put(element, histograms);
+		});
+		return result;
+	}
+}
@@ -1,9 +1,10 @@
 package com.iotracks.iofabric.message_bus;
 
-import org.hornetq.api.core.client.ClientMessage;
-import org.hornetq.api.core.client.MessageHandler;
+import java.util.concurrent.TimeUnit;
 
 import com.iotracks.iofabric.local_api.MessageCallback;
+import com.iotracks.iofabric.message_bus.MessageLatencyRecorder.Stage;
+import com.iotracks.iofabric.status_reporter.StatusReporter;
 
 /**
  * listener for real-time receiving
@@ -11,20 +12,26 @@ import com.iotracks.iofabric.local_api.MessageCallback;
  * @author saeid
  *
  */
-public class MessageListener implements MessageHandler{
+public class MessageListener {
+	private final String name;
 	private final MessageCallback callback;
 	
-	public MessageListener(MessageCallback callback) {
+	public MessageListener(String name, MessageCallback callback) {
+		this.name = name;
 		this.callback = callback;
 	}
 	
-	@Override
-	public void onMessage(ClientMessage msg) {
-		try {
-			msg.acknowledge();
-		} catch (Exception e) {}
-		
-		Message message = new Message(msg.getBytesProperty("message"));
+	/**
+	 * called by {@link MessageBusTransport} when a {@link Message} arrives
+	 * delivery latency is measured from message timestamp, in milliseconds
+	 * 
+	 * @param bytes - encoded {@link Message}
+	 */
+	public void onMessage(byte[] bytes) {
+		Message message = new Message(bytes);
+		MessageLatencyRecorder.record(name, Stage.DELIVER,
+				TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() - message.getTimestamp()));
+		StatusReporter.getMessageBusStatus().increaseReceivedMessagesPerElement(name, 1);
 		callback.sendRealtimeMessage(message);
 	}
 
@@ -1,13 +1,12 @@
 package com.iotracks.iofabric.message_bus;
 
+import java.util.ArrayList;
 import java.util.List;
 
-import org.hornetq.api.core.client.ClientMessage;
-import org.hornetq.api.core.client.ClientProducer;
-import org.hornetq.api.core.client.ClientSession;
-
 import com.iotracks.iofabric.element.Element;
 import com.iotracks.iofabric.element.Route;
+import com.iotracks.iofabric.message_bus.MessageLatencyRecorder.Stage;
+import com.iotracks.iofabric.status_reporter.StatusReporter;
 import com.iotracks.iofabric.utils.logging.LoggingService;
 
 /**
@@ -19,16 +18,14 @@ import com.iotracks.iofabric.utils.logging.LoggingService;
 public class MessagePublisher {
 	private final MessageArchive archive;
 	private final String name;
-	private ClientProducer producer;
-	private ClientSession session;
-	private Route route;
+	private final MessageBusTransport transport;
+	private volatile Route route;
 	
-	public MessagePublisher(String name, Route route, ClientProducer producer) {
+	public MessagePublisher(String name, Route route, MessageBusTransport transport) {
 		this.archive = new MessageArchive(name);
 		this.route = route;
 		this.name = name;
-		this.producer = producer;
-		this.session = MessageBusServer.getSession();
+		this.transport = transport;
 	}
 	
 	public String getName() {
@@ -39,49 +36,86 @@ public class MessagePublisher {
 	 * publishes a {@link Message}
 	 * 
 	 * @param message - {@link Message} to be published
+	 * @param start - {@link System#nanoTime()} when publishing started
 	 * @throws Exception
 	 */
-	protected synchronized void publish(Message message) throws Exception {
-		byte[] bytes = message.getBytes();
+	protected synchronized void publish(Message message, long start) throws Exception {
+		byte[] bytes = message.getEncoded();
 
 		try {
 			archive.save(bytes, message.getTimestamp());
+			MessageLatencyRecorder.recordSince(name, Stage.ARCHIVE, start);
+			StatusReporter.getMessageBusStatus().increaseArchivedBytesPerElement(name, bytes.length);
 		} catch (Exception e) {
 			LoggingService.logWarning("Message Publisher (" + this.name + ")", "unable to archive massage --> " + e.getMessage());
 		}
-		for (String receiver : route.getReceivers()) {
-			ClientMessage msg = session.createMessage(false);
-			msg.putObjectProperty("receiver", receiver);
-			msg.putBytesProperty("message", bytes);
-			producer.send(msg);
-		}
+		transport.send(name, route.getReceivers(), bytes);
+		MessageLatencyRecorder.recordSince(name, Stage.SEND, start);
 	}
 	
-	protected void update(ClientProducer producer, ClientSession session) {
-		this.session = session;
-		this.producer = producer;
+	/**
+	 * publishes a list of {@link Message}
+	 * messages are archived and sent to receivers at once
+	 * 
+	 * @param messages - list of {@link Message} to be published
+	 * @param start - {@link System#nanoTime()} when publishing started
+	 * @throws Exception
+	 */
+	protected synchronized void publishBatch(List<Message> messages, long start) throws Exception {
+		List<byte[]> batch = new ArrayList<>(messages.size());
+		long batchBytes = 0;
+		for (Message message : messages) {
+			byte[] bytes = message.getEncoded();
+			batch.add(bytes);
+			batchBytes += bytes.length;
+		}
+
+		try {
+			archive.save(messages);
+			MessageLatencyRecorder.recordSince(name, Stage.ARCHIVE, start);
+			StatusReporter.getMessageBusStatus().increaseArchivedBytesPerElement(name, batchBytes);
+		} catch (Exception e) {
+			LoggingService.logWarning("Message Publisher (" + this.name + ")", "unable to archive massages --> " + e.getMessage());
+		}
+		transport.send(name, route.getReceivers(), batch);
+		MessageLatencyRecorder.recordSince(name, Stage.SEND, start);
 	}
 	
 	protected void updateRoute(Route route) {
 		this.route = route;
 	}
 
-	public void close() {
+	/**
+	 * closes archive, synchronized with publishing so archive files
+	 * are not truncated while a {@link Message} is being written
+	 * 
+	 */
+	public synchronized void close() {
 		try {
 			archive.close();
 		} catch (Exception e) {}
 	}
 
 	/**
-	 * retrieves list of {@link Message} published by this {@link Element} 
+	 * retrieves {@link Message} published by this {@link Element} 
 	 * within a time frame
 	 * 
 	 * @param from - beginning of time frame
 	 * @param to - end of time frame
-	 * @return list of {@link Message}
+	 * @return {@link ArchiveCursor}
 	 */
-	public synchronized List<Message> messageQuery(long from, long to) {
+	public synchronized ArchiveCursor messageQuery(long from, long to) {
 		return archive.messageQuery(from, to);
 	}
+
+	/**
+	 * resumes a query of {@link Message} published by this {@link Element}
+	 * 
+	 * @param token - token returned by {@link ArchiveCursor#getToken()}
+	 * @return {@link ArchiveCursor}
+	 */
+	public synchronized ArchiveCursor messageQuery(String token) {
+		return archive.messageQuery(token);
+	}
 	
 }
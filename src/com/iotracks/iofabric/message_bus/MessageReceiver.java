@@ -2,9 +2,8 @@ package com.iotracks.iofabric.message_bus;
 
 import java.util.ArrayList;
 import java.util.List;
-
-import org.hornetq.api.core.client.ClientConsumer;
-import org.hornetq.api.core.client.ClientMessage;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import com.iotracks.iofabric.element.Element;
 import com.iotracks.iofabric.local_api.MessageCallback;
@@ -19,11 +18,12 @@ public class MessageReceiver {
 	private final String name;
 
 	private MessageListener listener;
-	private ClientConsumer consumer;
+	private final MessageBusTransport transport;
+	private final Set<Runnable> waiters = new CopyOnWriteArraySet<>();
 
-	public MessageReceiver(String name, ClientConsumer consumer) {
+	public MessageReceiver(String name, MessageBusTransport transport) {
 		this.name = name;
-		this.consumer = consumer;
+		this.transport = transport;
 		this.listener = null;
 	}
 
@@ -34,37 +34,54 @@ public class MessageReceiver {
 	 * @throws Exception
 	 */
 	protected synchronized List<Message> getMessages() throws Exception {
-		List<Message> result = new ArrayList<>();
-		
-		if (consumer != null || listener == null) {
-			Message message = getMessage();
-			while (message != null) {
-				result.add(message);
-				message = getMessage();
-			}
-		}
-		return result;
+		return getMessages(0, 0);
 	}
 
 	/**
-	 * receives only one {@link Message}
+	 * receivers up to a number of {@link Message} sent to this {@link Element}
+	 * receiving stops when either limit is reached, so size of the last
+	 * {@link Message} may exceed the size limit
 	 * 
-	 * @return {@link Message}
+	 * @param max - maximum number of {@link Message}, 0 for no limit
+	 * @param maxBytes - maximum total size of {@link Message}, 0 for no limit
+	 * @return list of {@link Message}
 	 * @throws Exception
 	 */
-	private Message getMessage() throws Exception {
-		if (consumer == null || listener != null)
-			return null;
+	protected synchronized List<Message> getMessages(int max, long maxBytes) throws Exception {
+		List<Message> result = new ArrayList<>();
+		if (listener != null)
+			return result;
 
-		Message result = null; 
-		ClientMessage msg = consumer.receiveImmediate();
-		if (msg != null) {
-			msg.acknowledge();
-			result = new Message(msg.getBytesProperty("message"));
-		}
+		for (byte[] bytes : transport.receive(name, max, maxBytes))
+			result.add(new Message(bytes));
 		return result;
 	}
 
+	/**
+	 * adds a waiter to be run whenever a {@link Message} is sent to this {@link Element}
+	 * waiter is kept until it is removed
+	 * 
+	 * @param waiter - {@link Runnable} to be run by publishing thread
+	 */
+	protected void addWaiter(Runnable waiter) {
+		waiters.add(waiter);
+	}
+
+	protected void removeWaiter(Runnable waiter) {
+		waiters.remove(waiter);
+	}
+
+	/**
+	 * runs waiters after a {@link Message} has been sent to this {@link Element}
+	 * 
+	 */
+	protected void notifyWaiters() {
+		if (waiters.isEmpty())
+			return;
+		for (Runnable waiter : waiters)
+			waiter.run();
+	}
+
 	protected String getName() {
 		return name;
 	}
@@ -74,11 +91,11 @@ public class MessageReceiver {
 	 * 
 	 */
 	protected void enableRealTimeReceiving() {
-		if (consumer == null || consumer.isClosed())
+		if (transport.isConsumerClosed(name))
 			return;
-		listener = new MessageListener(new MessageCallback(name));
+		listener = new MessageListener(name, new MessageCallback(name));
 		try {
-			consumer.setMessageHandler(listener);
+			transport.setListener(name, listener);
 		} catch (Exception e) {
 			listener = null;
 		}
@@ -90,19 +107,15 @@ public class MessageReceiver {
 	 */
 	protected void disableRealTimeReceiving() {
 		try {
-			if (consumer == null || listener == null || consumer.getMessageHandler() == null)
+			if (listener == null)
 				return;
 			listener = null;
-			consumer.setMessageHandler(null);
+			transport.setListener(name, null);
 		} catch (Exception e) {}
 	}
 	
 	protected void close() {
-		if (consumer == null)
-			return;
 		disableRealTimeReceiving();
-		try {
-			consumer.close();
-		} catch (Exception e) {}
+		transport.closeConsumer(name);
 	}
 }
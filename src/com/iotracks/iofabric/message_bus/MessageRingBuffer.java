@@ -0,0 +1,81 @@
+package com.iotracks.iofabric.message_bus;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * bounded lock-free queue of encoded {@link Message}
+ * any number of threads can offer, only one thread at a time can poll
+ *
+ * producers claim a slot by moving tail forward and then publish the message into it
+ * an empty slot at head means either the queue is empty or the producer has not published yet
+ *
+ * @author saeid
+ *
+ */
+public class MessageRingBuffer {
+	private final AtomicReferenceArray<byte[]> buffer;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+
+	/**
+	 * @param capacity - maximum number of messages, rounded up to a power of two
+	 */
+	public MessageRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.buffer = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * adds a message to the end of queue
+	 *
+	 * @param message - encoded {@link Message}
+	 * @return false if queue is full
+	 */
+	public boolean offer(byte[] message) {
+		long position;
+		do {
+			position = tail.get();
+			if (position - head >= buffer.length())
+				return false;
+		} while (!tail.compareAndSet(position, position + 1));
+		buffer.set((int) position & mask, message);
+		return true;
+	}
+
+	/**
+	 * removes the message at head of queue
+	 * must not be called by more than one thread at a time
+	 *
+	 * @return encoded {@link Message} or null if there is no published message
+	 */
+	public byte[] poll() {
+		long position = head;
+		int index = (int) position & mask;
+		byte[] message = buffer.get(index);
+		if (message == null)
+			return null;
+		buffer.lazySet(index, null);
+		head = position + 1;
+		return message;
+	}
+
+	/**
+	 * returns true if a published message is waiting at head of queue
+	 *
+	 * @return boolean
+	 */
+	public boolean hasNext() {
+		return buffer.get((int) head & mask) != null;
+	}
+
+	public int size() {
+		return (int) Math.max(0, tail.get() - head);
+	}
+
+	public int capacity() {
+		return buffer.length();
+	}
+}
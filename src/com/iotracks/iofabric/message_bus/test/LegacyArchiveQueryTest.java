@@ -0,0 +1,70 @@
+package com.iotracks.iofabric.message_bus.test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import com.iotracks.iofabric.message_bus.ArchiveCursor;
+import com.iotracks.iofabric.message_bus.Message;
+import com.iotracks.iofabric.message_bus.MessageArchive;
+import com.iotracks.iofabric.message_bus.MessageCodec;
+import com.iotracks.iofabric.utils.configuration.Configuration;
+
+/**
+ * checks that a query over a segment archived before pre-allocation,
+ * holding more than 1000 index records, returns every {@link Message}
+ *
+ * @author saeid
+ *
+ */
+public class LegacyArchiveQueryTest {
+	private static final int RECORDS = 1500;
+	private static final long TIMESTAMP = 1000;
+
+	public static void main(String[] args) throws Exception {
+		File directory = Files.createTempDirectory("iofabric").toFile();
+		Configuration.setDiskDirectory(directory.getPath() + "/");
+		File archiveDirectory = new File(directory, "messages/archive/");
+		archiveDirectory.mkdirs();
+
+		// legacy segment, rolled on data size only and without time index
+		try (RandomAccessFile indexFile = new RandomAccessFile(new File(archiveDirectory, "legacy_" + TIMESTAMP + ".idx"), "rw");
+				RandomAccessFile dataFile = new RandomAccessFile(new File(archiveDirectory, "legacy_" + TIMESTAMP + ".iomsg"), "rw")) {
+			for (int i = 0; i < RECORDS; i++) {
+				Message message = new Message("legacy");
+				message.setInfoType("test");
+				message.setInfoFormat("utf-8");
+				message.setTimestamp(TIMESTAMP + i);
+				message.setContentData(String.valueOf(i).getBytes());
+				byte[] bytes = message.getBytes();
+				indexFile.write(bytes, 0, MessageCodec.HEADER_SIZE);
+				indexFile.writeLong(dataFile.getFilePointer());
+				dataFile.write(bytes, MessageCodec.HEADER_SIZE, bytes.length - MessageCodec.HEADER_SIZE);
+			}
+		}
+
+		MessageArchive archive = new MessageArchive("legacy");
+		int count = 0;
+		long lastTimestamp = TIMESTAMP - 1;
+		try (ArchiveCursor cursor = archive.messageQuery(0, Long.MAX_VALUE)) {
+			while (cursor.hasNext()) {
+				long timestamp = cursor.next().getTimestamp();
+				if (timestamp != lastTimestamp + 1)
+					break;
+				lastTimestamp = timestamp;
+				count++;
+			}
+		}
+		archive.close();
+
+		for (File file : archiveDirectory.listFiles())
+			file.delete();
+		archiveDirectory.delete();
+		new File(directory, "messages").delete();
+		directory.delete();
+
+		System.out.println("legacy segment query returned " + count + " of " + RECORDS + " messages");
+		if (count != RECORDS)
+			System.exit(1);
+	}
+}
@@ -102,6 +102,9 @@ public class ResourceConsumptionManager {
 			indexFile.delete();
 			amount -= dataFile.length();
 			dataFile.delete();
+			File timeIndexFile = new File(archivesDirectory + indexFile.getName().substring(0, indexFile.getName().indexOf('.')) + ".tidx");
+			amount -= timeIndexFile.length();
+			timeIndexFile.delete();
 			if (amount < 0)
 				break;
 		}
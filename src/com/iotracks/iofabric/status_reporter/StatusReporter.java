@@ -6,9 +6,12 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import org.HdrHistogram.Histogram;
+
 import com.iotracks.iofabric.field_agent.FieldAgentStatus;
 import com.iotracks.iofabric.local_api.LocalApiStatus;
 import com.iotracks.iofabric.message_bus.MessageBusStatus;
+import com.iotracks.iofabric.message_bus.MessageLatencyRecorder.Stage;
 import com.iotracks.iofabric.process_manager.ProcessManagerStatus;
 import com.iotracks.iofabric.resource_consumption_manager.ResourceConsumptionManagerStatus;
 import com.iotracks.iofabric.supervisor.SupervisorStatus;
@@ -72,6 +75,16 @@ public final class StatusReporter {
 		result.append("\nRunning Elements            : " + processManagerStatus.getRunningElementsCount());
 		result.append("\nConnection to Controller    : " + connectionStatus);
 		result.append(String.format("\nMessages Processed          : about %,d", messageBusStatus.getProcessedMessages())); 
+		for (Stage stage : Stage.values()) {
+			String label = Character.toUpperCase(stage.getName().charAt(0)) + stage.getName().substring(1) + " Latency";
+			Histogram latency = messageBusStatus.getLatency(stage);
+			if (latency == null)
+				result.append(String.format("\n%-28s: not available", label));
+			else
+				result.append(String.format("\n%-28s: p50 %.2f ms, p99 %.2f ms, p999 %.2f ms", label,
+						MessageBusStatus.getPercentile(latency, 50), MessageBusStatus.getPercentile(latency, 99),
+						MessageBusStatus.getPercentile(latency, 99.9)));
+		}
 		result.append("\nSystem Time                 : " + 		dateFormat.format(cal.getTime()));
 		
 		return result.toString();
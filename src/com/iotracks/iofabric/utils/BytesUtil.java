@@ -1,8 +1,5 @@
 package com.iotracks.iofabric.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-
 /**
  * provides methods for "number <=> byte array" conversions
  * 
@@ -14,14 +11,8 @@ public class BytesUtil {
 	public static byte[] copyOfRange(byte[] src, int from, int to) {
 		if (from < 0 || from >= src.length || to < from || to > src.length)
 			return new byte[] {};
-		byte[] tmp = new byte[from];
 		byte[] result = new byte[to - from];
-		ByteArrayInputStream input = new ByteArrayInputStream(src);
-		input.read(tmp, 0, tmp.length);
-		input.read(result, 0, result.length);
-		try {
-			input.close();
-		} catch (IOException e) {}
+		System.arraycopy(src, from, result, 0, result.length);
 		return result;
 	}
 	
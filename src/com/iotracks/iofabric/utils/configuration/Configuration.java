@@ -48,6 +48,13 @@ public final class Configuration {
 	private static float logDiskLimit;
 	private static String logDiskDirectory;
 	private static int logFileCount;
+	private static int messageArchiveFlushCount;
+	private static long messageArchiveFlushInterval;
+	private static String messageBusTransport;
+	private static String localApiTransport;
+	private static int localApiEventLoopThreads;
+	private static int localApiExecutorThreads;
+	private static int localApiMaxBodySize;
 
 	public static boolean debugging = false;
 
@@ -66,6 +73,22 @@ public final class Configuration {
 		return nodes.item(0).getTextContent();
 	}
 
+	/**
+	 * return XML node value or default value if node is not defined
+	 * 
+	 * @param name - node name
+	 * @param defaultValue - value to return if node is not defined
+	 * @return node value
+	 * @throws ConfigurationItemException
+	 */
+	private static String getNode(String name, String defaultValue) throws ConfigurationItemException {
+		NodeList nodes = configElement.getElementsByTagName(name);
+		if (nodes.getLength() == 0)
+			return defaultValue;
+
+		return getNode(name);
+	}
+
 	/**
 	 * sets XML node value
 	 * 
@@ -319,6 +342,13 @@ public final class Configuration {
 		setLogDiskDirectory(getNode("log_disk_directory"));
 		setLogDiskLimit(Float.parseFloat(getNode("log_disk_consumption_limit")));
 		setLogFileCount(Integer.parseInt(configElement.getElementsByTagName("log_file_count").item(0).getTextContent()));
+		setMessageArchiveFlushCount(Integer.parseInt(getNode("message_archive_flush_count", "0")));
+		setMessageArchiveFlushInterval(Long.parseLong(getNode("message_archive_flush_interval", "0")));
+		setMessageBusTransport(getNode("message_bus_transport", "hornetq"));
+		setLocalApiTransport(getNode("local_api_transport", "nio"));
+		setLocalApiEventLoopThreads(Integer.parseInt(getNode("local_api_event_loop_threads", "0")));
+		setLocalApiExecutorThreads(Integer.parseInt(getNode("local_api_executor_threads", "0")));
+		setLocalApiMaxBodySize(Integer.parseInt(getNode("local_api_max_body_size", "64")));
 	}
 
 	private Configuration() {
@@ -369,6 +399,34 @@ public final class Configuration {
 		return logFileCount;
 	}
 
+	public static int getMessageArchiveFlushCount() {
+		return messageArchiveFlushCount;
+	}
+
+	public static long getMessageArchiveFlushInterval() {
+		return messageArchiveFlushInterval;
+	}
+
+	public static String getMessageBusTransport() {
+		return messageBusTransport;
+	}
+
+	public static String getLocalApiTransport() {
+		return localApiTransport;
+	}
+
+	public static int getLocalApiEventLoopThreads() {
+		return localApiEventLoopThreads;
+	}
+
+	public static int getLocalApiExecutorThreads() {
+		return localApiExecutorThreads;
+	}
+
+	public static int getLocalApiMaxBodySize() {
+		return localApiMaxBodySize;
+	}
+
 	public static float getLogDiskLimit() {
 		return logDiskLimit;
 	}
@@ -443,6 +501,34 @@ public final class Configuration {
 		Configuration.logFileCount = logFileCount;
 	}
 
+	public static void setMessageArchiveFlushCount(int messageArchiveFlushCount) {
+		Configuration.messageArchiveFlushCount = messageArchiveFlushCount;
+	}
+
+	public static void setMessageArchiveFlushInterval(long messageArchiveFlushInterval) {
+		Configuration.messageArchiveFlushInterval = messageArchiveFlushInterval;
+	}
+
+	public static void setMessageBusTransport(String messageBusTransport) {
+		Configuration.messageBusTransport = messageBusTransport;
+	}
+
+	public static void setLocalApiTransport(String localApiTransport) {
+		Configuration.localApiTransport = localApiTransport;
+	}
+
+	public static void setLocalApiEventLoopThreads(int localApiEventLoopThreads) {
+		Configuration.localApiEventLoopThreads = localApiEventLoopThreads;
+	}
+
+	public static void setLocalApiExecutorThreads(int localApiExecutorThreads) {
+		Configuration.localApiExecutorThreads = localApiExecutorThreads;
+	}
+
+	public static void setLocalApiMaxBodySize(int localApiMaxBodySize) {
+		Configuration.localApiMaxBodySize = localApiMaxBodySize;
+	}
+
 	/**
 	 * returns report for "info" commandline parameter
 	 * 